@@ -7,27 +7,52 @@
 
 package net.furfurylic.chionographis;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.LongFunction;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.namespace.QName;
 import javax.xml.transform.Result;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPathExpression;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.Resource;
 import org.w3c.dom.Document;
-import org.w3c.dom.DocumentFragment;
-import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
 
 import net.furfurylic.chionographis.Logger.Level;
 
@@ -57,8 +82,57 @@ public final class All extends Filter {
 
     private Doctype doctype_ = null;
 
-    private Document resultDocument_;
-    private Assemblage<LongFunction<Resource>> finders_;
+    private boolean stream_ = false;
+    private Path cacheDir_ = null;
+
+    /**
+     * Whether this filter streams the sources, which is decided by
+     * {@link #doInit(File, NamespaceContext, boolean)}.
+     */
+    private boolean streams_;
+
+    private ConcurrentLinkedQueue<LongFunction<Resource>> finders_;
+
+    /**
+     * The buffers which hold the sources in non-streaming mode,
+     * keyed in the order in which they appear in the resulted document.
+     */
+    private ConcurrentSkipListMap<Long, EventBuffer> sources_;
+
+    /**
+     * The temporary files into which the sources are serialized in streaming mode,
+     * keyed in the order in which they appear in the resulted document.
+     */
+    private ConcurrentSkipListMap<Long, FragmentResult> fragments_;
+
+    /** The number of the sources started in the bundle. */
+    private AtomicInteger fragmentCount_;
+
+    /** The cache of the serialized sources, or {@code null} if not used. */
+    private FragmentCache cache_ = null;
+
+    private boolean dryRun_ = false;
+
+    /**
+     * The file names of all original sources in the bundle, which are set only if the cache
+     * has been examined by {@link #preexamineBundle(String[], LongFunction[])}.
+     */
+    private String[] bundleOrigSrcFileNames_ = null;
+
+    /** The finders of newer sources of all original sources in the bundle, or {@code null}. */
+    private LongFunction<Resource>[] bundleFinders_ = null;
+
+    /**
+     * The up-to-date cached documents of each original source in the bundle,
+     * whose elements are {@code null} for the sources not cached.
+     */
+    private List<List<Path>> cachedFragments_ = null;
+
+    /**
+     * Whether the three fields above have been set for the coming bundle by
+     * {@link #preexamineBundle(String[], LongFunction[])}.
+     */
+    private boolean preexamined_ = false;
 
     /** Sole constructor. */
     All() {
@@ -82,6 +156,51 @@ public final class All extends Filter {
         root_ = root;
     }
 
+    /**
+     * Sets whether this filter should stream the sources into the resulted document instead of
+     * collecting them in memory. Defaulted to {@code false}.
+     *
+     * <p>If set to {@code false}, each source is recorded into a compact buffer of its SAX
+     * events, which takes far less memory than its DOM tree, and the resulted document is
+     * replayed from the buffers. Only if the sink {@linkplain Output#setRefer(String) refers the
+     * content} of the resulted document, the resulted document is built as a DOM tree.</p>
+     *
+     * <p>If set to {@code true}, each source is serialized into a temporary file as soon as it
+     * is finished, and the resulted document is sent to the sink as a stream which consists of
+     * the start tag of the document element, the sources in the order of the original sources,
+     * and the end tag of the document element. So the memory consumption is not proportional to
+     * the total size of the sources.</p>
+     *
+     * <p>If the sink {@linkplain Output#setRefer(String) refers the content} of the resulted
+     * document, the resulted document is built as a DOM tree regardless of this attribute.</p>
+     *
+     * @param stream
+     *      {@code true} if streams the sources; {@code false} otherwise.
+     */
+    public void setStream(boolean stream) {
+        stream_ = stream;
+    }
+
+    /**
+     * Sets the directory where this filter caches the serialized sources
+     * in {@linkplain #setStream(boolean) streaming mode}.
+     * If the given string represents an relative path, it is resolved by
+     * {@linkplain Chionographis#setBaseDir(String) the base directory of the task}.
+     *
+     * <p>If set, the documents from each original source are kept in the directory across
+     * builds. When the resulted document needs to be rebuilt, only the original sources newer
+     * than their cached documents are processed, and the others are taken from the cache.
+     * The directory shall be dedicated to this filter; the cached documents of the original
+     * sources which are no longer supplied are deleted. If not in streaming mode,
+     * this attribute is ignored.</p>
+     *
+     * @param cacheDir
+     *      the directory where the serialized sources are cached.
+     */
+    public void setCacheDir(String cacheDir) {
+        cacheDir_ = Paths.get(cacheDir);
+    }
+
     /**
      * Creates a new {@link Doctype} object which instructs this filter to embed a document type
      * declaration.
@@ -119,10 +238,35 @@ public final class All extends Filter {
         root_ = XMLUtils.createQualifiedName(rootQ_);
 
         sink().init(baseDir, namespaceContext, xmlHelper(), logger(), isForce(), dryRun);
+
+        // If the sink refers the content, the resulted document shall be materialized
+        // to be examined prior to being sent.
+        streams_ = stream_ && sink().referents().isEmpty();
+        if (stream_ && !streams_) {
+            logger().log(this,
+                "Sources are not streamed because the sink refers the content", Level.VERBOSE);
+        }
+        if (cacheDir_ != null) {
+            if (streams_) {
+                cache_ = new FragmentCache(baseDir.toPath().resolve(cacheDir_));
+            } else {
+                logger().log(this,
+                    "Sources are not cached because they are not streamed", Level.VERBOSE);
+            }
+        }
+        dryRun_ = dryRun;
+    }
+
+    @Override
+    Plan plan() {
+        return new Plan("All (root=" + rootQ_ + ")", Plan.Form.SAX,
+            Collections.singletonList(sink().plan()));
     }
 
     @Override
     boolean[] preexamineBundle(String[] origSrcFileNames, LongFunction<Resource>[] finders) {
+        clearBundleState();
+        preexamined_ = true;
         boolean[] includes;
         if (isForce()) {
             includes = new boolean[origSrcFileNames.length];
@@ -130,52 +274,111 @@ public final class All extends Filter {
         } else {
             includes = sink().preexamineBundle(origSrcFileNames, finders);
             if (IntStream.range(0, includes.length).anyMatch(i -> includes[i])) {
-                Arrays.fill(includes, true);
+                if (cache_ != null) {
+                    includeUncached(origSrcFileNames, finders, includes);
+                } else {
+                    Arrays.fill(includes, true);
+                }
             }
         }
         return includes;
     }
 
+    /**
+     * Decides the sources to be processed to be those whose documents are not cached
+     * or are older than them.
+     */
+    private void includeUncached(String[] origSrcFileNames, LongFunction<Resource>[] finders,
+            boolean[] includes) {
+        cachedFragments_ = new ArrayList<>(origSrcFileNames.length);
+        int includedCount = 0;
+        for (int i = 0; i < origSrcFileNames.length; ++i) {
+            List<Path> cached = (origSrcFileNames[i] != null) ?
+                cache_.lookUp(origSrcFileNames[i], finders[i]) : null;
+            cachedFragments_.add(cached);
+            includes[i] = (cached == null);
+            if (includes[i]) {
+                ++includedCount;
+            }
+        }
+        if ((includedCount == 0) && (includes.length > 0)) {
+            // At least one source shall be processed for the bundle to take place.
+            includes[0] = true;
+        }
+        bundleOrigSrcFileNames_ = origSrcFileNames;
+        bundleFinders_ = finders;
+        logger().log(this, (origSrcFileNames.length - includedCount) + " of "
+            + origSrcFileNames.length + " sources are found in the cache", Level.DEBUG);
+    }
+
+    /**
+     * Forgets what has been examined for a bundle.
+     */
+    private void clearBundleState() {
+        bundleOrigSrcFileNames_ = null;
+        bundleFinders_ = null;
+        cachedFragments_ = null;
+        preexamined_ = false;
+    }
+
     @Override
     void startBundle() {
+        if (!preexamined_) {
+            // What was examined for a past bundle shall not leak into this one.
+            clearBundleState();
+        }
+        preexamined_ = false;
         logger().log(this, "Starting to collect input sources into " + rootQ_, Level.DEBUG);
         sink().startBundle();
-        resultDocument_ = xmlHelper().transfer().newDocument(getLocation());
-        Element docElement = resultDocument_.createElementNS(rootQ_.getNamespaceURI(), root_);
-        if (!rootQ_.getNamespaceURI().equals(XMLConstants.NULL_NS_URI)) {
-            // If rootQ_ is in a certain namespace, add the namespace decl
-            docElement.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
-                XMLConstants.XMLNS_ATTRIBUTE + ':' + rootQ_.getPrefix(),
-                rootQ_.getNamespaceURI());
+        finders_ = new ConcurrentLinkedQueue<>();
+        fragmentCount_ = new AtomicInteger(0);
+        if (streams_) {
+            fragments_ = new ConcurrentSkipListMap<>();
+            if ((cache_ != null) && !dryRun_) {
+                try {
+                    cache_.open();
+                } catch (IOException e) {
+                    throw new BuildException(
+                        "Failed to create directory " + cache_.directory(), e, getLocation());
+                }
+            }
+        } else {
+            sources_ = new ConcurrentSkipListMap<>();
         }
-        resultDocument_.appendChild(docElement);
-        finders_ = new Assemblage<>();
+    }
+
+    /**
+     * Makes a key by which the sources are ordered in the resulted document.
+     * The sources are ordered by the original sources, and then by their arrival.
+     */
+    private long newKey(int origSrcIndex) {
+        return ((long) origSrcIndex << 32) | (fragmentCount_.getAndIncrement() & 0xffffffffL);
     }
 
     @Override
     Result startOne(int origSrcIndex, String origSrcFileName,
             LongFunction<Resource> finder, List<String> notUsed) {
-        assert resultDocument_ != null;
-        synchronized (resultDocument_) {
-            finders_.add(finder);
-            return new DOMResult(resultDocument_.createDocumentFragment());
+        finders_.add(finder);
+        if (streams_) {
+            return new FragmentResult(origSrcIndex, origSrcFileName);
+        } else {
+            // Each source is recorded into its own buffer,
+            // which is replayed into the resulted document at last.
+            return new SourceBufferResult(newKey(origSrcIndex));
         }
     }
 
     @Override
     void finishOne(Result result) {
-        assert resultDocument_ != null;
-        assert result != null;
-        assert result instanceof DOMResult;
-        assert ((DOMResult) result).getNode() != null;
-        DOMResult r = (DOMResult) result;
-        Node n = r.getNode();
-        assert n != null;
-        assert n instanceof DocumentFragment;
-        assert n.getOwnerDocument() == resultDocument_;
-        synchronized (resultDocument_) {
-            resultDocument_.getDocumentElement().appendChild(n);
+        if (streams_) {
+            assert result instanceof FragmentResult;
+            ((FragmentResult) result).finish();
+            return;
         }
+        assert result != null;
+        assert result instanceof SourceBufferResult;
+        SourceBufferResult r = (SourceBufferResult) result;
+        sources_.put(r.key(), r.buffer());
     }
 
     @Override
@@ -183,40 +386,412 @@ public final class All extends Filter {
         // This object collects all of the inputs into one result,
         // so aborting one ruins the whole result.
         logger().log(this, "One of the sources is damaged; must give up all", Level.VERBOSE);
+        if (streams_) {
+            assert result instanceof FragmentResult;
+            ((FragmentResult) result).discard();
+        }
         return this;
     }
 
     @Override
     void finishBundle() {
-        assert resultDocument_ != null;
-        List<XPathExpression> referents = sink().referents();
-        List<String> referredContents;
-        if (!referents.isEmpty()) {
-            referredContents = XMLUtils.extract(resultDocument_, referents);
-            logger().log(this, "Referred source data: "
-                + String.join(", ", referredContents), Level.DEBUG);
-        } else {
-            referredContents = Collections.emptyList();
+        try {
+            if (streams_) {
+                try {
+                    finishBundleStreaming();
+                } finally {
+                    fragments_.values().forEach(FragmentResult::discard);
+                    fragments_ = null;
+                }
+            } else {
+                try {
+                    finishBundleBuffered();
+                } finally {
+                    sources_ = null;
+                }
+            }
+        } finally {
+            clearBundleState();
         }
+        sink().finishBundle();
+    }
+
+    private void finishBundleBuffered() {
         LongFunction<Resource> finder = (long lastModified) ->
-            finders_.getList().stream()
-                              .map(fn -> fn.apply(lastModified))
-                              .filter(f -> f != null)
-                              .findAny()
-                              .orElse(null);
+            finders_.stream()
+                    .map(fn -> fn.apply(lastModified))
+                    .filter(f -> f != null)
+                    .findAny()
+                    .orElse(null);
+        SourcesSender sender = (handler, lexicalHandler) -> {
+            FragmentFilter filter = new FragmentFilter();
+            filter.setContentHandler(handler);
+            LexicalHandler skipper = (lexicalHandler != null) ?
+                new DTDSkipper(lexicalHandler) : null;
+            for (EventBuffer source : sources_.values()) {
+                source.replay(filter, skipper);
+            }
+        };
+
+        List<XPathExpression> referents = sink().referents();
+        if (referents.isEmpty()) {
+            // The resulted document is sent to the sink directly from the buffers
+            Result result = sink().startOne(-1, null, finder, Collections.emptyList());
+            if (result != null) {
+                try {
+                    sendDocument(result, sender);
+                } catch (RuntimeException e) {
+                    sink().abortOne(result);
+                    throw e;
+                }
+                sink().finishOne(result);
+            }
+            return;
+        }
+
+        // The sink refers the content of the resulted document, which requires a DOM tree
+        // for the XPath evaluation because JAXP XPath evaluates expressions only on DOM nodes.
+        // The tree is built only here and is handed to the sink by move if it takes one.
+        Document resultDocument = xmlHelper().transfer().newDocument(getLocation());
+        sendDocument(new DOMResult(resultDocument), sender);
+        List<String> referredContents = XMLUtils.extract(resultDocument, referents);
+        logger().log(this, "Referred source data: "
+            + String.join(", ", referredContents), Level.DEBUG);
         Result result = sink().startOne(-1, null, finder, referredContents);
         if (result != null) {
-            // Prepare DOCTYPE
-            if (doctype_ != null) {
-                doctype_.populateInto(resultDocument_);
-            }
-            // Send fragment to sink
             xmlHelper().transfer().transfer(
-                    new DOMSource(resultDocument_), result, getLocation());
-            resultDocument_ = null;
-            // Finish sink
+                    new DOMSource(resultDocument), result, getLocation());
             sink().finishOne(result);
         }
-        sink().finishBundle();
+    }
+
+    private void finishBundleStreaming() {
+        List<LongFunction<Resource>> finders = new ArrayList<>(finders_);
+        if (bundleFinders_ != null) {
+            // The sources taken from the cache also contribute to the resulted document.
+            finders.addAll(Arrays.asList(bundleFinders_));
+        }
+        LongFunction<Resource> finder = (long lastModified) ->
+            finders.stream()
+                   .map(fn -> fn.apply(lastModified))
+                   .filter(f -> f != null)
+                   .findAny()
+                   .orElse(null);
+        List<Path> fragments = assembleFragments();
+        Result result = sink().startOne(-1, null, finder, Collections.emptyList());
+        if (result != null) {
+            try {
+                sendDocument(result, (handler, lexicalHandler) -> {
+                    SAXResult fragmentResult = new SAXResult(handler);
+                    fragmentResult.setLexicalHandler(lexicalHandler);
+                    XMLTransfer transfer = xmlHelper().transfer();
+                    for (Path fragment : fragments) {
+                        transfer.transfer(new SAXSource(new FragmentFilter(),
+                            new InputSource(fragment.toUri().toString())),
+                            fragmentResult, getLocation());
+                    }
+                });
+            } catch (RuntimeException e) {
+                sink().abortOne(result);
+                throw e;
+            }
+            sink().finishOne(result);
+        }
+    }
+
+    /**
+     * Lists the files of the serialized sources in the order in which they appear in the
+     * resulted document, storing the newly serialized ones into the cache if it is used.
+     */
+    private List<Path> assembleFragments() {
+        boolean caches = (cache_ != null) && fragments_.values().stream().allMatch(
+            f -> (f.origSrcIndex() >= 0) && (f.origSrcFileName() != null));
+        if (!caches) {
+            // Unless each document comes from its own original source,
+            // the cached documents cannot be combined.
+            return fragments_.values().stream()
+                                      .map(FragmentResult::file)
+                                      .collect(Collectors.toList());
+        }
+
+        // Gathers the newly serialized sources, and then fills the gaps with the cached ones.
+        Map<Integer, List<FragmentResult>> fresh = fragments_.values().stream()
+            .collect(Collectors.groupingBy(
+                FragmentResult::origSrcIndex, TreeMap::new, Collectors.toList()));
+        TreeMap<Integer, List<Path>> fragments = new TreeMap<>();
+        try {
+            for (Map.Entry<Integer, List<FragmentResult>> e : fresh.entrySet()) {
+                List<Path> files = e.getValue().stream()
+                                               .map(FragmentResult::file)
+                                               .collect(Collectors.toList());
+                if (!dryRun_) {
+                    files = cache_.store(e.getValue().get(0).origSrcFileName(), files);
+                }
+                fragments.put(e.getKey(), files);
+            }
+            if (bundleOrigSrcFileNames_ != null) {
+                for (int i = 0; i < cachedFragments_.size(); ++i) {
+                    if (!fragments.containsKey(i) && (cachedFragments_.get(i) != null)) {
+                        fragments.put(i, cachedFragments_.get(i));
+                    }
+                }
+                if (!dryRun_) {
+                    cache_.retainOnly(Arrays.asList(bundleOrigSrcFileNames_));
+                }
+            }
+        } catch (IOException e) {
+            throw new BuildException(
+                "Failed to update the cache in " + cache_.directory(), e, getLocation());
+        }
+        return fragments.values().stream()
+                                 .flatMap(List::stream)
+                                 .collect(Collectors.toList());
+    }
+
+    /**
+     * Sends the resulted document assembled from the sources to a result.
+     */
+    private void sendDocument(Result result, SourcesSender sender) {
+        ContentHandler handler;
+        LexicalHandler lexicalHandler;
+        if (result instanceof SAXResult) {
+            SAXResult saxResult = (SAXResult) result;
+            handler = saxResult.getHandler();
+            if (saxResult.getLexicalHandler() != null) {
+                lexicalHandler = saxResult.getLexicalHandler();
+            } else if (handler instanceof LexicalHandler) {
+                lexicalHandler = (LexicalHandler) handler;
+            } else {
+                lexicalHandler = null;
+            }
+        } else {
+            TransformerHandler identity = newIdentityHandler();
+            identity.setResult(result);
+            handler = identity;
+            lexicalHandler = identity;
+        }
+
+        String namespaceURI = rootQ_.getNamespaceURI();
+        try {
+            handler.startDocument();
+            if ((doctype_ != null) && (lexicalHandler != null)) {
+                doctype_.populateInto(lexicalHandler, root_);
+            }
+            if (!namespaceURI.equals(XMLConstants.NULL_NS_URI)) {
+                handler.startPrefixMapping(rootQ_.getPrefix(), namespaceURI);
+            }
+            handler.startElement(namespaceURI, rootQ_.getLocalPart(), root_,
+                new AttributesImpl());
+
+            sender.send(handler, lexicalHandler);
+
+            handler.endElement(namespaceURI, rootQ_.getLocalPart(), root_);
+            if (!namespaceURI.equals(XMLConstants.NULL_NS_URI)) {
+                handler.endPrefixMapping(rootQ_.getPrefix());
+            }
+            handler.endDocument();
+        } catch (SAXException e) {
+            throw new NonfatalBuildException(e, getLocation());
+        }
+
+        if ((doctype_ != null) && (result instanceof DOMResult)) {
+            Node node = ((DOMResult) result).getNode();
+            if (node instanceof Document) {
+                doctype_.populateInto((Document) node);
+            }
+        }
+    }
+
+    private TransformerHandler newIdentityHandler() {
+        try {
+            return ((SAXTransformerFactory) TransformerFactory.newInstance())
+                .newTransformerHandler();
+        } catch (TransformerConfigurationException e) {
+            throw new BuildException(e, getLocation());
+        }
+    }
+
+    private static void deleteFragment(Path fragment) {
+        try {
+            Files.deleteIfExists(fragment);
+        } catch (IOException e) {
+            // Ignored because the temporary file is only garbage
+        }
+    }
+
+    /** A function which sends the sources as the content of the resulted document. */
+    @FunctionalInterface
+    private static interface SourcesSender {
+        void send(ContentHandler handler, LexicalHandler lexicalHandler) throws SAXException;
+    }
+
+    /** A TrAX {@code Result} which records a source in non-streaming mode. */
+    private static final class SourceBufferResult extends SAXResult {
+        private final long key_;
+        private final EventBuffer buffer_;
+
+        public SourceBufferResult(long key) {
+            key_ = key;
+            buffer_ = new EventBuffer();
+            setHandler(buffer_);
+            setLexicalHandler(buffer_);
+        }
+
+        public long key() {
+            return key_;
+        }
+
+        public EventBuffer buffer() {
+            return buffer_;
+        }
+    }
+
+    /**
+     * A TrAX {@code Result} which serializes a source into a temporary file
+     * in streaming mode.
+     */
+    private final class FragmentResult extends SAXResult {
+        private final int origSrcIndex_;
+        private final String origSrcFileName_;
+        private final long key_;
+        private final Path file_;
+        private final OutputStream out_;
+
+        public FragmentResult(int origSrcIndex, String origSrcFileName) {
+            origSrcIndex_ = origSrcIndex;
+            origSrcFileName_ = origSrcFileName;
+            key_ = newKey(origSrcIndex);
+            try {
+                file_ = ((cache_ != null) && !dryRun_) ?
+                    cache_.newTemporary() : Files.createTempFile("chionographis-all", ".xml");
+            } catch (IOException e) {
+                throw new NonfatalBuildException(
+                    "Failed to create a temporary file", e, getLocation());
+            }
+            OutputStream out = null;
+            try {
+                out = new BufferedOutputStream(Files.newOutputStream(file_));
+                TransformerHandler identity = newIdentityHandler();
+                identity.setResult(new StreamResult(out));
+                setHandler(identity);
+                setLexicalHandler(new DTDSkipper(identity));
+            } catch (IOException | RuntimeException e) {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e2) {
+                        e.addSuppressed(e2);
+                    }
+                }
+                deleteFragment(file_);
+                throw new NonfatalBuildException(
+                    "Failed to create a temporary file " + file_, e, getLocation());
+            }
+            out_ = out;
+        }
+
+        public void finish() {
+            try {
+                out_.close();
+            } catch (IOException e) {
+                deleteFragment(file_);
+                // The resulted document has been ruined.
+                throw new BuildException("Failed to write " + file_, e, getLocation());
+            }
+            fragments_.put(key_, this);
+        }
+
+        public int origSrcIndex() {
+            return origSrcIndex_;
+        }
+
+        public String origSrcFileName() {
+            return origSrcFileName_;
+        }
+
+        public Path file() {
+            return file_;
+        }
+
+        public void discard() {
+            try {
+                out_.close();
+            } catch (IOException e) {
+                // Ignored because the temporary file is to be deleted anyway
+            }
+            deleteFragment(file_);
+        }
+    }
+
+    /**
+     * A SAX lexical handler which drops document type declarations, which cannot appear
+     * in the resulted document.
+     */
+    private static final class DTDSkipper implements LexicalHandler {
+        private final LexicalHandler handler_;
+        private boolean inDTD_ = false;
+
+        public DTDSkipper(LexicalHandler handler) {
+            handler_ = handler;
+        }
+
+        @Override
+        public void startDTD(String name, String publicId, String systemId) {
+            inDTD_ = true;
+        }
+
+        @Override
+        public void endDTD() {
+            inDTD_ = false;
+        }
+
+        @Override
+        public void startEntity(String name) throws SAXException {
+            if (!inDTD_) {
+                handler_.startEntity(name);
+            }
+        }
+
+        @Override
+        public void endEntity(String name) throws SAXException {
+            if (!inDTD_) {
+                handler_.endEntity(name);
+            }
+        }
+
+        @Override
+        public void startCDATA() throws SAXException {
+            handler_.startCDATA();
+        }
+
+        @Override
+        public void endCDATA() throws SAXException {
+            handler_.endCDATA();
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) throws SAXException {
+            if (!inDTD_) {
+                handler_.comment(ch, start, length);
+            }
+        }
+    }
+
+    /**
+     * An XML filter which passes the content of a serialized source
+     * as a part of the resulted document.
+     */
+    private static final class FragmentFilter extends XMLFilterImpl {
+        @Override
+        public void setDocumentLocator(Locator locator) {
+        }
+
+        @Override
+        public void startDocument() {
+        }
+
+        @Override
+        public void endDocument() {
+        }
     }
 }
@@ -0,0 +1,231 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This class represents a pool of byte arrays.
+ *
+ * <p>Pooled arrays are classified by their lengths, which are powers of two between the
+ * minimum and the maximum of the pool. Arrays longer than the maximum are never pooled, and
+ * the total length of the pooled arrays is capped. To reduce contention, the pool is split
+ * into stripes, each of which is chosen by the threads which access the pool.</p>
+ *
+ * <p>Objects of this class are thread safe.</p>
+ */
+final class BufferPool {
+
+    /**
+     * A pool shared in Chionographis library, which pools arrays from 4 KiB to 4 MiB
+     * up to 64 MiB in total.
+     */
+    public static final BufferPool BYTES = new BufferPool(12, 22, 64L << 20);
+
+    private final int minShift_;
+    private final int maxShift_;
+    private final long capacity_;
+    private final Stripe[] stripes_;
+
+    private final AtomicLong retainedBytes_ = new AtomicLong();
+    private final LongAdder hits_ = new LongAdder();
+    private final LongAdder misses_ = new LongAdder();
+    private final LongAdder drops_ = new LongAdder();
+
+    /**
+     * Sole constructor.
+     *
+     * @param minShift
+     *      the binary logarithm of the length of the shortest pooled arrays.
+     * @param maxShift
+     *      the binary logarithm of the length of the longest pooled arrays,
+     *      which shall not be less than {@code minShift} nor be greater than 30.
+     * @param capacity
+     *      the maximum total length of the pooled arrays.
+     */
+    public BufferPool(int minShift, int maxShift, long capacity) {
+        assert (minShift <= maxShift) && (maxShift <= 30);
+        minShift_ = minShift;
+        maxShift_ = maxShift;
+        capacity_ = capacity;
+        int processors = Runtime.getRuntime().availableProcessors();
+        stripes_ = new Stripe[Integer.highestOneBit(Math.max(processors, 1) * 2 - 1)];
+        for (int i = 0; i < stripes_.length; ++i) {
+            stripes_[i] = new Stripe(maxShift - minShift + 1);
+        }
+    }
+
+    /**
+     * Takes out a pooled array.
+     *
+     * @param minLength
+     *      the minimum length of the array.
+     *
+     * @return
+     *      an array whose length is not less than {@code minLength}, whose content is undefined.
+     */
+    public byte[] get(int minLength) {
+        int shift = shiftOf(minLength);
+        if (shift > maxShift_) {
+            misses_.increment();
+            return new byte[minLength];
+        }
+
+        int sizeClass = shift - minShift_;
+        int home = stripeIndex();
+        byte[] array = stripes_[home].poll(sizeClass, true);
+        for (int i = 1; (array == null) && (i < stripes_.length); ++i) {
+            // Other stripes may be holding arrays released by other threads.
+            array = stripes_[(home + i) & (stripes_.length - 1)].poll(sizeClass, false);
+        }
+        if (array != null) {
+            retainedBytes_.addAndGet(-array.length);
+            hits_.increment();
+            return array;
+        } else {
+            misses_.increment();
+            return new byte[1 << shift];
+        }
+    }
+
+    /**
+     * Returns an array to this pool.
+     *
+     * <p>If the array cannot be pooled because its length is not one of the size classes of
+     * this pool or because this pool is full, the array is dropped.</p>
+     *
+     * @param array
+     *      an array to be returned to this pool, which shall not be used after this call.
+     */
+    public void release(byte[] array) {
+        int length = array.length;
+        int shift = Integer.numberOfTrailingZeros(length);
+        if ((length != (1 << shift)) || (shift < minShift_) || (shift > maxShift_)) {
+            drops_.increment();
+            return;
+        }
+
+        long retained;
+        do {
+            retained = retainedBytes_.get();
+            if (retained + length > capacity_) {
+                drops_.increment();
+                return;
+            }
+        } while (!retainedBytes_.compareAndSet(retained, retained + length));
+
+        stripes_[stripeIndex()].offer(shift - minShift_, array);
+    }
+
+    private int shiftOf(int minLength) {
+        if (minLength <= (1 << minShift_)) {
+            return minShift_;
+        } else {
+            return 32 - Integer.numberOfLeadingZeros(minLength - 1);
+        }
+    }
+
+    private int stripeIndex() {
+        return (int) Thread.currentThread().getId() & (stripes_.length - 1);
+    }
+
+    /**
+     * Returns the number of the requests served with pooled arrays.
+     *
+     * @return
+     *      the number of hits.
+     */
+    public long hits() {
+        return hits_.sum();
+    }
+
+    /**
+     * Returns the number of the requests served with newly created arrays.
+     *
+     * @return
+     *      the number of misses.
+     */
+    public long misses() {
+        return misses_.sum();
+    }
+
+    /**
+     * Returns the number of the returned arrays which were not pooled.
+     *
+     * @return
+     *      the number of drops.
+     */
+    public long drops() {
+        return drops_.sum();
+    }
+
+    /**
+     * Returns the total length of the arrays currently pooled.
+     *
+     * @return
+     *      the total length in bytes.
+     */
+    public long retainedBytes() {
+        return retainedBytes_.get();
+    }
+
+    /**
+     * Renders the metrics of this pool into a human-readable form.
+     *
+     * @return
+     *      a string which describes the metrics of this pool.
+     */
+    public String metrics() {
+        return "hits=" + hits() + ", misses=" + misses() + ", drops=" + drops()
+            + ", retained bytes=" + retainedBytes();
+    }
+
+    private static final class Stripe {
+        private final ReentrantLock lock_ = new ReentrantLock();
+        private final ArrayDeque<byte[]>[] queues_;
+
+        Stripe(int sizeClassCount) {
+            queues_ = newQueues(sizeClassCount);
+            for (int i = 0; i < sizeClassCount; ++i) {
+                queues_[i] = new ArrayDeque<>();
+            }
+        }
+
+        private static ArrayDeque<byte[]>[] newQueues(int length) {
+            // Arrays of a generic type cannot be created without an unchecked conversion.
+            @SuppressWarnings("unchecked")
+            ArrayDeque<byte[]>[] queues = (ArrayDeque<byte[]>[]) new ArrayDeque<?>[length];
+            return queues;
+        }
+
+        byte[] poll(int sizeClass, boolean waits) {
+            if (waits) {
+                lock_.lock();
+            } else if (!lock_.tryLock()) {
+                return null;
+            }
+            try {
+                return queues_[sizeClass].poll();
+            } finally {
+                lock_.unlock();
+            }
+        }
+
+        void offer(int sizeClass, byte[] array) {
+            lock_.lock();
+            try {
+                queues_[sizeClass].offer(array);
+            } finally {
+                lock_.unlock();
+            }
+        }
+    }
+}
@@ -118,14 +118,14 @@ final class CachingResolver implements EntityResolver, URIResolver {
 
             // 3: content length is unknown
             try (ExposingByteArrayOutputStream bytes = new ExposingByteArrayOutputStream()) {
-                byte[] buffer = Pool.BYTES.get();
+                byte[] buffer = BufferPool.BYTES.get(4096);
                 try (InputStream in = connection.getInputStream()) {
                     int readLength;
                     while ((readLength = in.read(buffer)) != -1) {
                         bytes.write(buffer, 0, readLength);
                     }
                 } finally {
-                    Pool.BYTES.release(buffer);
+                    BufferPool.BYTES.release(buffer);
                 }
                 return ByteBuffer.wrap(bytes.buffer(), 0, bytes.size());
             }
@@ -61,8 +61,10 @@ public final class Chionographis extends MatchingTask implements Driver {
     private Path srcDir_;
     private Path baseDir_;
     private YesNo usesCache_ = YesNo.DEFAULT;
+    private boolean cachesGrammars_ = false;
     private boolean force_ = false;
     private boolean verbose_ = false;
+    private boolean explain_ = false;
     private boolean parallel_ = true;
     private boolean dryRun_ = false;
     private boolean failOnError_ = true;
@@ -133,6 +135,24 @@ public final class Chionographis extends MatchingTask implements Driver {
         usesCache_ = YesNo.valueOf(cache);
     }
 
+    /**
+     * Sets whether the grammars of the external DTD subsets of the original sources should be
+     * cached in this task. Defaulted to {@code false}.
+     *
+     * <p>If set to {@code true}, all parsers used in this task share one grammar pool,
+     * in which each external DTD subset is kept keyed by its public and system identifiers once
+     * it is read and compiled, so the subset is not read again by the subsequent documents.
+     * Documents with internal DTD subsets do not take part in the sharing.
+     * This is available only with the Xerces parser in the JDK 8 or Apache Xerces on the class
+     * path; otherwise this task fails.</p>
+     *
+     * @param cacheGrammars
+     *      {@code true} if cached; {@code false} otherwise.
+     */
+    public void setCacheGrammars(boolean cacheGrammars) {
+        cachesGrammars_ = cacheGrammars;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -141,6 +161,14 @@ public final class Chionographis extends MatchingTask implements Driver {
         force_ = force;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setParallelSinks(boolean parallelSinks) {
+        sinks_.setParallelDispatch(parallelSinks);
+    }
+
     /**
      * Sets whether verbose logging should be performed.
      * Defaulted to {@code false}.
@@ -155,6 +183,22 @@ public final class Chionographis extends MatchingTask implements Driver {
         verbose_ = verbose;
     }
 
+    /**
+     * Sets whether the execution plan should be reported with "info" log level.
+     * Defaulted to {@code false}, with which the plan is reported with "debug" log level.
+     *
+     * <p>The execution plan tells in which form (SAX events, DOM trees or serialized bytes)
+     * each sink receives documents. It helps to find out why a configuration is slow,
+     * for materializing documents into DOM trees costs much more than streaming them.</p>
+     *
+     * @param explain
+     *      {@code true} if the execution plan is reported with "info" log level;
+     *      {@code false} otherwise.
+     */
+    public void setExplain(boolean explain) {
+        explain_ = explain;
+    }
+
     /**
      * Sets whether parallel execution is employed.
      *
@@ -316,6 +360,14 @@ public final class Chionographis extends MatchingTask implements Driver {
         return sinks_.createSnip();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Validate createValidate() {
+        return sinks_.createValidate();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -390,6 +442,7 @@ public final class Chionographis extends MatchingTask implements Driver {
 
         sinks_.init(baseDir_.toFile(), createNamespaceContext(), xmlHelper,
                 logger_, force_, dryRun);
+        explainPlan();
 
         // Tell whether destinations are older.
         boolean[] includes = (force_ || (finders == null)) ?
@@ -449,11 +502,33 @@ public final class Chionographis extends MatchingTask implements Driver {
             break;
         }
 
-        if (pool != null) {
-            pool.submit(() -> sinks_.finishBundle()).join();
-        } else {
-            sinks_.finishBundle();
+        try {
+            if (pool != null) {
+                pool.submit(() -> sinks_.finishBundle()).join();
+            } else {
+                sinks_.finishBundle();
+            }
+        } catch (NonfatalBuildException e) {
+            if (failOnNonfatalError_) {
+                throw new BuildException(
+                    "Nonfatal error occurred and \"failOnNonfatalError\" specified",
+                    e, getLocation());
+            } else {
+                logger_.log(this, "Failed to finish the outputs", Level.WARN);
+                logger_.log(this, e, "  Cause: ", Level.INFO, Level.VERBOSE);
+            }
         }
+
+        logger_.log(this, "Buffer pool: " + BufferPool.BYTES.metrics(), Level.DEBUG);
+    }
+
+    private void explainPlan() {
+        Level level = explain_ ? Level.INFO : Level.DEBUG;
+        // This shall be coincident with what ChionographisWorker does.
+        logger_.log(this, "Execution plan: original sources are " +
+            (sinks_.referents().isEmpty() ? "parsed on the fly" : "parsed into DOM trees"),
+            level);
+        sinks_.plan().explain().forEach(l -> logger_.log(this, l, level));
     }
 
     @SuppressWarnings("unchecked")
@@ -528,7 +603,11 @@ public final class Chionographis extends MatchingTask implements Driver {
         } else {
             resolver = xmlCatalog;
         }
-        XMLTransfer defaultXfer = new XMLTransfer(resolver);
+        Object grammarPool = null;
+        if (cachesGrammars_) {
+            grammarPool = XMLTransfer.newGrammarPool(getLocation());
+        }
+        XMLTransfer defaultXfer = new XMLTransfer(resolver, grammarPool);
         return new XMLHelper() {
             @Override
             public XMLTransfer transfer() {
@@ -0,0 +1,570 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.DocumentType;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * A serializer of DOM documents into byte streams.
+ *
+ * <p>This class writes the same bytes as the default configuration of {@code LSSerializer} of
+ * JDK 8 does, that is, an XML declaration followed by a newline, the document type declaration
+ * if any, and the content with namespace declarations fixed up, in which the characters of the
+ * text and the attribute values which need escaping or cannot be represented in the encoding
+ * are written as hexadecimal character references; but it encodes the characters into its own
+ * reusable buffer without intermediate objects per node. UTF-8 is encoded by hand, and the
+ * other encodings are encoded by {@code CharsetEncoder}s.</p>
+ *
+ * <p>The output differs from that of {@code LSSerializer} only in the following points, where
+ * {@code LSSerializer} alters the document:</p>
+ * <ul>
+ * <li>Comments and processing instructions before the document element are written before
+ *     it, while {@code LSSerializer} moves them after it.</li>
+ * <li>Supplementary characters in comments and processing instructions are written as they
+ *     are, while {@code LSSerializer} writes the text of character references in their
+ *     place, which are not references there.</li>
+ * <li>Characters in comments and processing instructions which cannot be represented in the
+ *     encoding make the writing fail, while {@code LSSerializer} writes question marks in
+ *     their place.</li>
+ * <li>Adjacent CDATA sections are merged into one as {@code LSSerializer} does, but a
+ *     {@code "]]>"} which arises from the merger is split, while {@code LSSerializer} writes
+ *     it as it is and so breaks the CDATA section.</li>
+ * </ul>
+ *
+ * <p>Objects of this class are not thread safe; each thread gets its own one by
+ * {@link #get()}.</p>
+ */
+final class DOMSerializer {
+
+    private static final ThreadLocal<DOMSerializer> SERIALIZERS =
+        ThreadLocal.withInitial(DOMSerializer::new);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int RAW = 0;
+    private static final int TEXT = 1;
+    private static final int ATTRIBUTE = 2;
+    private static final int CDATA = 3;
+
+    private final byte[] bytes_ = new byte[BUFFER_SIZE];
+    private int byteCount_;
+
+    /** The buffer of the characters to be encoded, which is used only for non-UTF-8. */
+    private final char[] chars_ = new char[BUFFER_SIZE];
+    private int charCount_;
+
+    /** The encoder for the current document, which is {@code null} for UTF-8. */
+    private CharsetEncoder encoder_;
+    private CharsetEncoder lastEncoder_;
+    private OutputStream out_;
+
+    /** The namespace bindings in scope, whose each pair is a prefix and a namespace URI. */
+    private final List<String> bindings_ = new ArrayList<>();
+
+    private DOMSerializer() {
+    }
+
+    /**
+     * Returns the serializer dedicated to the current thread.
+     *
+     * @return
+     *      a serializer, which is not {@code null}.
+     */
+    public static DOMSerializer get() {
+        return SERIALIZERS.get();
+    }
+
+    /**
+     * Tells the encoding in which a document would be written by {@code LSSerializer}.
+     *
+     * @param document
+     *      a DOM document, which shall not be {@code null}.
+     *
+     * @return
+     *      the name of the encoding, which is not {@code null}.
+     */
+    public static String encodingOf(Document document) {
+        if (document.getInputEncoding() != null) {
+            return document.getInputEncoding();
+        } else if (document.getXmlEncoding() != null) {
+            return document.getXmlEncoding();
+        } else {
+            return StandardCharsets.UTF_8.name();
+        }
+    }
+
+    /**
+     * Writes a DOM document into a byte stream.
+     * The stream is neither flushed nor closed by this method.
+     *
+     * @param document
+     *      a DOM document, which shall not be {@code null}.
+     * @param encoding
+     *      the name of the character encoding, which shall not be {@code null}.
+     * @param out
+     *      a byte stream, which shall not be {@code null}.
+     *
+     * @throws IOException
+     *      if an I/O error occurs, or the encoding is not supported, or a character in the
+     *      markup cannot be represented in the encoding, or the document contains an unpaired
+     *      surrogate.
+     */
+    public void write(Document document, String encoding, OutputStream out)
+            throws IOException {
+        Charset charset;
+        try {
+            charset = Charset.forName(encoding);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unsupported encoding: " + encoding, e);
+        }
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            encoder_ = null;
+        } else {
+            if ((lastEncoder_ == null) || !lastEncoder_.charset().equals(charset)) {
+                lastEncoder_ = charset.newEncoder()
+                                      .onMalformedInput(CodingErrorAction.REPORT)
+                                      .onUnmappableCharacter(CodingErrorAction.REPORT);
+            }
+            encoder_ = lastEncoder_.reset();
+        }
+        out_ = out;
+        byteCount_ = 0;
+        charCount_ = 0;
+        bindings_.clear();
+        try {
+            if (charset.equals(StandardCharsets.UTF_16BE)
+             || charset.equals(StandardCharsets.UTF_16LE)) {
+                // LSSerializer puts a byte order mark even if the byte order is explicit
+                putChar('\uFEFF');
+            }
+            write("<?xml version=\"", RAW);
+            write((document.getXmlVersion() != null) ? document.getXmlVersion() : "1.0", RAW);
+            write("\" encoding=\"", RAW);
+            write(encoding, RAW);
+            write("\"?>\n", RAW);
+            for (Node n = document.getFirstChild(); n != null; n = n.getNextSibling()) {
+                writeNode(n);
+            }
+            flush(true);
+        } finally {
+            out_ = null;
+            encoder_ = null;
+            bindings_.clear();
+        }
+    }
+
+    private void writeNode(Node node) throws IOException {
+        switch (node.getNodeType()) {
+        case Node.ELEMENT_NODE:
+            writeElement((Element) node);
+            break;
+        case Node.TEXT_NODE:
+            write(node.getNodeValue(), TEXT);
+            break;
+        case Node.CDATA_SECTION_NODE:
+            // Adjacent CDATA sections are merged into one as LSSerializer does
+            if (!isCDATASection(node.getPreviousSibling())) {
+                writeCDATASection(node);
+            }
+            break;
+        case Node.COMMENT_NODE:
+            write("<!--", RAW);
+            write(node.getNodeValue(), RAW);
+            write("-->", RAW);
+            break;
+        case Node.PROCESSING_INSTRUCTION_NODE:
+            write("<?", RAW);
+            write(node.getNodeName(), RAW);
+            write(" ", RAW);
+            write(nonNull(node.getNodeValue()), RAW);
+            write("?>", RAW);
+            break;
+        case Node.ENTITY_REFERENCE_NODE:
+            write("&", RAW);
+            write(node.getNodeName(), RAW);
+            write(";", RAW);
+            break;
+        case Node.DOCUMENT_TYPE_NODE:
+            writeDocumentType((DocumentType) node);
+            break;
+        case Node.DOCUMENT_FRAGMENT_NODE:
+            for (Node n = node.getFirstChild(); n != null; n = n.getNextSibling()) {
+                writeNode(n);
+            }
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void writeDocumentType(DocumentType doctype) throws IOException {
+        write("<!DOCTYPE ", RAW);
+        write(doctype.getName(), RAW);
+        if (doctype.getPublicId() != null) {
+            write(" PUBLIC \"", RAW);
+            write(doctype.getPublicId(), RAW);
+            write("\" \"", RAW);
+            write((doctype.getSystemId() != null) ? doctype.getSystemId() : "", RAW);
+            write("\"", RAW);
+        } else if (doctype.getSystemId() != null) {
+            write(" SYSTEM \"", RAW);
+            write(doctype.getSystemId(), RAW);
+            write("\"", RAW);
+        }
+        String internalSubset = doctype.getInternalSubset();
+        if ((internalSubset != null) && !internalSubset.isEmpty()) {
+            write(" [", RAW);
+            write(internalSubset, RAW);
+            write("]", RAW);
+        }
+        write(">\n", RAW);
+    }
+
+    private void writeElement(Element element) throws IOException {
+        int scope = bindings_.size();
+        NamedNodeMap attributes = element.getAttributes();
+        int attributeCount = attributes.getLength();
+
+        // Namespace declarations present in the document come first
+        for (int i = 0; i < attributeCount; ++i) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                String prefix = XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getPrefix()) ?
+                    attribute.getLocalName() : XMLConstants.DEFAULT_NS_PREFIX;
+                bind(prefix, attribute.getValue());
+            }
+        }
+
+        write("<", RAW);
+        write(element.getNodeName(), RAW);
+        for (int i = 0; i < attributeCount; ++i) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())) {
+                writeAttribute(attribute.getName(), attribute.getValue());
+            }
+        }
+
+        // Declarations which the document lacks are made up
+        if (element.getLocalName() != null) {
+            String namespaceURI = nonNull(element.getNamespaceURI());
+            String prefix = nonNull(element.getPrefix());
+            if (!namespaceURI.equals(nonNull(lookUp(prefix)))) {
+                declare(prefix, namespaceURI);
+            }
+        }
+        for (int i = 0; i < attributeCount; ++i) {
+            Attr attribute = (Attr) attributes.item(i);
+            String namespaceURI = attribute.getNamespaceURI();
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI)) {
+                continue;
+            }
+            if ((namespaceURI == null) || namespaceURI.isEmpty()
+             || (attribute.getLocalName() == null)) {
+                writeAttribute(attribute.getName(), attribute.getValue());
+            } else {
+                String prefix = attribute.getPrefix();
+                if ((prefix == null) || !namespaceURI.equals(lookUp(prefix))) {
+                    String bound = prefixOf(namespaceURI);
+                    if (bound != null) {
+                        prefix = bound;
+                    } else {
+                        if ((prefix == null) || (lookUp(prefix) != null)) {
+                            prefix = newPrefix();
+                        }
+                        declare(prefix, namespaceURI);
+                    }
+                }
+                writeAttribute(prefix + ':' + attribute.getLocalName(), attribute.getValue());
+            }
+        }
+
+        Node child = element.getFirstChild();
+        if (child == null) {
+            write("/>", RAW);
+        } else {
+            write(">", RAW);
+            for (; child != null; child = child.getNextSibling()) {
+                writeNode(child);
+            }
+            write("</", RAW);
+            write(element.getNodeName(), RAW);
+            write(">", RAW);
+        }
+
+        while (bindings_.size() > scope) {
+            bindings_.remove(bindings_.size() - 1);
+        }
+    }
+
+    private void writeAttribute(String name, String value) throws IOException {
+        write(" ", RAW);
+        write(name, RAW);
+        write("=\"", RAW);
+        write(value, ATTRIBUTE);
+        write("\"", RAW);
+    }
+
+    private void writeCDATASection(Node first) throws IOException {
+        String data = first.getNodeValue();
+        Node next = first.getNextSibling();
+        if (isCDATASection(next)) {
+            StringBuilder merged = new StringBuilder(data);
+            for (; isCDATASection(next); next = next.getNextSibling()) {
+                merged.append(next.getNodeValue());
+            }
+            data = merged.toString();
+        }
+
+        write("<![CDATA[", RAW);
+        int start = 0;
+        for (int end; (end = data.indexOf("]]>", start)) >= 0; start = end + 2) {
+            write(data.substring(start, end + 2), CDATA);
+            write("]]><![CDATA[", RAW);
+        }
+        write(data.substring(start), CDATA);
+        write("]]>", RAW);
+    }
+
+    private void declare(String prefix, String namespaceURI) throws IOException {
+        bind(prefix, namespaceURI);
+        writeAttribute(prefix.isEmpty() ? XMLConstants.XMLNS_ATTRIBUTE :
+            (XMLConstants.XMLNS_ATTRIBUTE + ':' + prefix), namespaceURI);
+    }
+
+    private void bind(String prefix, String namespaceURI) {
+        bindings_.add(prefix);
+        bindings_.add(namespaceURI);
+    }
+
+    private String lookUp(String prefix) {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.XML_NS_URI;
+        }
+        for (int i = bindings_.size() - 2; i >= 0; i -= 2) {
+            if (bindings_.get(i).equals(prefix)) {
+                return bindings_.get(i + 1);
+            }
+        }
+        return null;
+    }
+
+    /** Finds a non-default prefix which is bound to a namespace URI in scope. */
+    private String prefixOf(String namespaceURI) {
+        if (XMLConstants.XML_NS_URI.equals(namespaceURI)) {
+            return XMLConstants.XML_NS_PREFIX;
+        }
+        for (int i = bindings_.size() - 2; i >= 0; i -= 2) {
+            String prefix = bindings_.get(i);
+            if (!prefix.isEmpty() && bindings_.get(i + 1).equals(namespaceURI)
+             && namespaceURI.equals(lookUp(prefix))) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    private String newPrefix() {
+        for (int i = 1; ; ++i) {
+            String prefix = "NS" + i;
+            if (lookUp(prefix) == null) {
+                return prefix;
+            }
+        }
+    }
+
+    private static boolean isCDATASection(Node node) {
+        return (node != null) && (node.getNodeType() == Node.CDATA_SECTION_NODE);
+    }
+
+    private static String nonNull(String s) {
+        return (s != null) ? s : "";
+    }
+
+    private void write(String s, int escaping) throws IOException {
+        int length = s.length();
+        for (int i = 0; i < length; ++i) {
+            char c = s.charAt(i);
+            if ((escaping == TEXT) || (escaping == ATTRIBUTE)) {
+                String escaped = escape(c, escaping);
+                if (escaped != null) {
+                    write(escaped, RAW);
+                    continue;
+                }
+            }
+            int codePoint = c;
+            if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && (i + 1 < length)
+                        && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, s.charAt(++i));
+                } else {
+                    throw new IOException(String.format(
+                        "Unpaired surrogate U+%04X cannot be written", (int) c));
+                }
+            }
+            if (isRepresentable(c, codePoint, escaping)) {
+                if (encoder_ == null) {
+                    putUTF8(codePoint);
+                } else {
+                    putCodePoint(codePoint);
+                }
+            } else {
+                // Unrepresentable characters in the content are written as character references
+                writeReference(codePoint, escaping);
+            }
+        }
+    }
+
+    private boolean isRepresentable(char c, int codePoint, int escaping) {
+        if (escaping == RAW) {
+            return true;
+        } else if (codePoint >= 0x10000) {
+            // LSSerializer writes supplementary characters as references in any encoding
+            return false;
+        } else if ((encoder_ == null) || (codePoint < 0x80)) {
+            // LSSerializer does not leave DEL in CDATA sections
+            return (escaping != CDATA) || (codePoint != 0x7f);
+        } else {
+            return encoder_.canEncode(c);
+        }
+    }
+
+    private void writeReference(int codePoint, int escaping) throws IOException {
+        if (escaping == CDATA) {
+            // A CDATA section cannot contain references, so it is split around them
+            write("]]>", RAW);
+        }
+        write("&#x", RAW);
+        write(Integer.toHexString(codePoint), RAW);
+        write(";", RAW);
+        if (escaping == CDATA) {
+            write("<![CDATA[", RAW);
+        }
+    }
+
+    private static String escape(char c, int escaping) {
+        switch (c) {
+        case '&':
+            return "&amp;";
+        case '<':
+            return "&lt;";
+        case '>':
+            return (escaping == TEXT) ? "&gt;" : null;
+        case '\r':
+            return "&#xd;";
+        case '"':
+            return (escaping == ATTRIBUTE) ? "&quot;" : null;
+        case '\t':
+            return (escaping == ATTRIBUTE) ? "&#x9;" : null;
+        case '\n':
+            return (escaping == ATTRIBUTE) ? "&#xa;" : null;
+        default:
+            return null;
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (byteCount_ == bytes_.length) {
+            out_.write(bytes_, 0, byteCount_);
+            byteCount_ = 0;
+        }
+        bytes_[byteCount_++] = (byte) b;
+    }
+
+    private void putUTF8(int codePoint) throws IOException {
+        if (codePoint < 0x80) {
+            put(codePoint);
+        } else if (codePoint < 0x800) {
+            put(0xc0 | (codePoint >> 6));
+            put(0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            put(0xe0 | (codePoint >> 12));
+            put(0x80 | ((codePoint >> 6) & 0x3f));
+            put(0x80 | (codePoint & 0x3f));
+        } else {
+            put(0xf0 | (codePoint >> 18));
+            put(0x80 | ((codePoint >> 12) & 0x3f));
+            put(0x80 | ((codePoint >> 6) & 0x3f));
+            put(0x80 | (codePoint & 0x3f));
+        }
+    }
+
+    private void putCodePoint(int codePoint) throws IOException {
+        if (codePoint < 0x10000) {
+            putChar((char) codePoint);
+        } else {
+            putChar(Character.highSurrogate(codePoint));
+            putChar(Character.lowSurrogate(codePoint));
+        }
+    }
+
+    private void putChar(char c) throws IOException {
+        if (charCount_ == chars_.length) {
+            flush(false);
+        }
+        chars_[charCount_++] = c;
+    }
+
+    private void flush(boolean endOfInput) throws IOException {
+        if (encoder_ != null) {
+            CharBuffer in = CharBuffer.wrap(chars_, 0, charCount_);
+            ByteBuffer out = ByteBuffer.wrap(bytes_);
+            for (;;) {
+                out.position(byteCount_);
+                CoderResult result = encoder_.encode(in, out, endOfInput);
+                byteCount_ = out.position();
+                if (result.isOverflow()) {
+                    out_.write(bytes_, 0, byteCount_);
+                    byteCount_ = 0;
+                } else if (result.isError()) {
+                    result.throwException();
+                } else {
+                    break;
+                }
+            }
+            // Dangling high surrogates are carried over to the next round
+            int remaining = in.remaining();
+            System.arraycopy(chars_, in.position(), chars_, 0, remaining);
+            charCount_ = remaining;
+            if (endOfInput) {
+                for (;;) {
+                    out.position(byteCount_);
+                    CoderResult result = encoder_.flush(out);
+                    byteCount_ = out.position();
+                    if (!result.isOverflow()) {
+                        break;
+                    }
+                    out_.write(bytes_, 0, byteCount_);
+                    byteCount_ = 0;
+                }
+            }
+        }
+        if (endOfInput && (byteCount_ > 0)) {
+            out_.write(bytes_, 0, byteCount_);
+            byteCount_ = 0;
+        }
+    }
+}
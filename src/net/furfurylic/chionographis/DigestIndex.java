@@ -0,0 +1,258 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A persistent index of the content digests of files.
+ *
+ * <p>Each entry of the index records the size, the last modified time and the digest of the
+ * content of a file at the time when the entry is put. The recorded digest is considered to
+ * be <i>stale</i> if the size or the last modified time of the file differs from the recorded
+ * ones.</p>
+ *
+ * <p>Objects of this class are thread-safe.</p>
+ */
+final class DigestIndex {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private final Path file_;
+    private final ConcurrentMap<String, Entry> entries_ = new ConcurrentHashMap<>();
+    private volatile boolean modified_ = false;
+
+    private DigestIndex(Path file) {
+        file_ = file;
+    }
+
+    /**
+     * Loads an index from a file.
+     *
+     * <p>If the file does not exist, this method returns an empty index.
+     * Malformed entries in the file are ignored.</p>
+     *
+     * @param file
+     *      the file which stores the index, which shall not be {@code null}.
+     *
+     * @return
+     *      a new index, which is not {@code null}.
+     *
+     * @throws IOException
+     *      if an I/O error occurs in reading the file.
+     */
+    public static DigestIndex load(Path file) throws IOException {
+        DigestIndex index = new DigestIndex(file);
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return index;
+        }
+        for (Map.Entry<Object, Object> property : properties.entrySet()) {
+            Entry entry = Entry.parse(property.getValue().toString());
+            if (entry != null) {
+                index.entries_.put(property.getKey().toString(), entry);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Creates a new message digest object whose algorithm is used by this class.
+     *
+     * @return
+     *      a new message digest object, which is not {@code null}.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every implementation of the Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Tells whether the current content of a file is identical to the content with a digest.
+     *
+     * @param file
+     *      an absolute path of the file, which shall not be {@code null}.
+     * @param digest
+     *      the digest of the content, which shall not be {@code null}.
+     *
+     * @return
+     *      {@link Boolean#TRUE} if identical; {@link Boolean#FALSE} if not identical;
+     *      {@code null} if this index does not know the current content of the file.
+     */
+    public Boolean isIdentical(Path file, byte[] digest) {
+        Entry entry = entries_.get(file.toString());
+        if (entry == null) {
+            return null;
+        }
+        File f = file.toFile();
+        if ((entry.size_ != f.length()) || (entry.lastModified_ != f.lastModified())) {
+            return null;
+        }
+        return Boolean.valueOf(Arrays.equals(entry.digest_, digest));
+    }
+
+    /**
+     * Records the current size and last modified time of a file with the digest of its content.
+     *
+     * @param file
+     *      an absolute path of the file, which shall not be {@code null}.
+     * @param digest
+     *      the digest of the content of the file, which shall not be {@code null}.
+     */
+    public void put(Path file, byte[] digest) {
+        File f = file.toFile();
+        Entry entry = new Entry(f.length(), f.lastModified(), digest);
+        Entry old = entries_.put(file.toString(), entry);
+        if (!entry.equals(old)) {
+            modified_ = true;
+        }
+    }
+
+    /**
+     * Stores this index into the file from which it has been loaded if modified.
+     *
+     * @throws IOException
+     *      if an I/O error occurs in writing the file.
+     */
+    public void store() throws IOException {
+        if (!modified_) {
+            return;
+        }
+        Properties properties = new Properties();
+        entries_.forEach((k, v) -> properties.setProperty(k, v.toString()));
+        Path parent = file_.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, "." + file_.getFileName(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                properties.store(out, "Chionographis digest index");
+            }
+            try {
+                Files.move(temporary, file_,
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file_, StandardCopyOption.REPLACE_EXISTING);
+            }
+            modified_ = false;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static final class Entry {
+        private final long size_;
+        private final long lastModified_;
+        private final byte[] digest_;
+
+        Entry(long size, long lastModified, byte[] digest) {
+            size_ = size;
+            lastModified_ = lastModified;
+            digest_ = digest;
+        }
+
+        static Entry parse(String s) {
+            String[] fields = s.split(",");
+            if (fields.length != 3) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                    fromHex(fields[2]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return (size_ == other.size_) && (lastModified_ == other.lastModified_)
+                && Arrays.equals(digest_, other.digest_);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(digest_);
+        }
+
+        @Override
+        public String toString() {
+            return size_ + "," + lastModified_ + "," + toHex(digest_);
+        }
+    }
+
+    /**
+     * Makes a lowercase hexadecimal representation of bytes.
+     *
+     * @param bytes
+     *      the bytes.
+     *
+     * @return
+     *      the hexadecimal representation.
+     */
+    static String toHex(byte[] bytes) {
+        StringBuilder s = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            s.append(Character.forDigit((b >> 4) & 0xf, 16));
+            s.append(Character.forDigit(b & 0xf, 16));
+        }
+        return s.toString();
+    }
+
+    /**
+     * Parses a hexadecimal representation of bytes.
+     *
+     * @param s
+     *      the hexadecimal representation.
+     *
+     * @return
+     *      the bytes.
+     *
+     * @throws IllegalArgumentException
+     *      if {@code s} is malformed.
+     */
+    static byte[] fromHex(String s) {
+        if (s.length() % 2 != 0) {
+            throw new IllegalArgumentException(s);
+        }
+        byte[] bytes = new byte[s.length() / 2];
+        for (int i = 0; i < bytes.length; ++i) {
+            int high = Character.digit(s.charAt(i * 2), 16);
+            int low = Character.digit(s.charAt(i * 2 + 1), 16);
+            if ((high < 0) || (low < 0)) {
+                throw new IllegalArgumentException(s);
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
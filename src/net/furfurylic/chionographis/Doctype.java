@@ -11,6 +11,8 @@ import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.ProjectComponent;
 import org.w3c.dom.Document;
 import org.w3c.dom.DocumentType;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
 
 /**
  * Instructions to <i>{@link All}</i> and <i>{@link Snip}</i> filters about document type
@@ -81,4 +83,20 @@ public final class Doctype extends ProjectComponent {
             document.insertBefore(doctype, document.getFirstChild());
         }
     }
+
+    /**
+     * Reports the document type declaration to the specified SAX lexical handler.
+     *
+     * @param handler
+     *      a SAX lexical handler to which the declaration is reported.
+     * @param name
+     *      the name of the document element.
+     *
+     * @throws SAXException
+     *      if {@code handler} throws it.
+     */
+    void populateInto(LexicalHandler handler, String name) throws SAXException {
+        handler.startDTD(name, publicID_, systemID_);
+        handler.endDTD();
+    }
 }
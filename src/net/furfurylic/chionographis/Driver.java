@@ -24,6 +24,21 @@ public interface Driver {
      */
     void setForce(boolean force);
 
+    /**
+     * Sets whether this driver should pass each processed document to its sinks in parallel,
+     * when it has multiple sinks which receive SAX events. Defaulted to {@code false}.
+     *
+     * <p>If set to {@code true}, the sinks receive the document on their own threads,
+     * so a slow sink (for example, a heavy stylesheet) does not hold up the others.
+     * The driver goes ahead of the slowest sink at most a bounded number of events.
+     * If one of the sinks needs a DOM tree, the tree is built once, and the others which
+     * receive SAX events are fed concurrently from one replayable record of it.</p>
+     *
+     * @param parallelSinks
+     *      {@code true} if the document is passed in parallel; {@code false} otherwise.
+     */
+    void setParallelSinks(boolean parallelSinks);
+
     /**
      * Adds a {@code Transform} filter which consumes the output of this driver object.
      *
@@ -48,6 +63,14 @@ public interface Driver {
      */
     Snip createSnip();
 
+    /**
+     * Adds a {@code Validate} filter which consumes the output of this driver object.
+     *
+     * @return
+     *      a {@code Validate} filter object.
+     */
+    Validate createValidate();
+
     /**
      * Adds an {@code Output} sink which consumes the output of this driver object.
      *
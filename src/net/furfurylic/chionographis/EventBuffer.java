@@ -0,0 +1,505 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.transform.sax.SAXSource;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * A compact in-memory record of a stream of SAX events, which can be replayed to any
+ * {@code ContentHandler} any number of times, either directly or through a TrAX
+ * {@code Source}.
+ *
+ * <p>The events are recorded into an array of integers. The names, namespace URIs and
+ * attribute types are interned into a table of strings and referred by their indices, and all
+ * of the character data is appended to one array of characters, which is passed to the
+ * handlers as it is on replay. So a buffer takes far less memory than the DOM tree of the same
+ * document.</p>
+ *
+ * <p>Objects of this class are not thread safe while they are recording, but once the
+ * recording has finished, they can be replayed by multiple threads simultaneously.</p>
+ */
+final class EventBuffer implements ContentHandler, LexicalHandler {
+
+    private static final int START_DOCUMENT = 0;
+    private static final int END_DOCUMENT = 1;
+    private static final int START_PREFIX_MAPPING = 2;
+    private static final int END_PREFIX_MAPPING = 3;
+    private static final int START_ELEMENT = 4;
+    private static final int END_ELEMENT = 5;
+    private static final int CHARACTERS = 6;
+    private static final int IGNORABLE_WHITESPACE = 7;
+    private static final int PROCESSING_INSTRUCTION = 8;
+    private static final int SKIPPED_ENTITY = 9;
+    private static final int START_DTD = 10;
+    private static final int END_DTD = 11;
+    private static final int START_ENTITY = 12;
+    private static final int END_ENTITY = 13;
+    private static final int START_CDATA = 14;
+    private static final int END_CDATA = 15;
+    private static final int COMMENT = 16;
+
+    /** The index which represents {@code null} in the string table. */
+    private static final int NULL = -1;
+
+    private int[] events_ = new int[256];
+    private int eventCount_ = 0;
+
+    private char[] chars_ = new char[1024];
+    private int charCount_ = 0;
+
+    private String[] strings_ = new String[32];
+    private int stringCount_ = 0;
+
+    /** The index of the strings, which is discarded when the recording has finished. */
+    private Map<String, Integer> stringIndices_ = new HashMap<>();
+
+    /**
+     * Replays the recorded events.
+     *
+     * @param handler
+     *      a content handler which receives the events, which shall not be {@code null}.
+     * @param lexicalHandler
+     *      a lexical handler which receives the lexical events, which can be {@code null}.
+     *
+     * @throws SAXException
+     *      if one of the handlers throws an exception.
+     */
+    public void replay(ContentHandler handler, LexicalHandler lexicalHandler)
+            throws SAXException {
+        int[] events = events_;
+        char[] chars = chars_;
+        AttributesImpl atts = new AttributesImpl();
+        int i = 0;
+        while (i < eventCount_) {
+            switch (events[i++]) {
+            case START_DOCUMENT:
+                handler.startDocument();
+                break;
+            case END_DOCUMENT:
+                handler.endDocument();
+                break;
+            case START_PREFIX_MAPPING:
+                handler.startPrefixMapping(string(events[i]), string(events[i + 1]));
+                i += 2;
+                break;
+            case END_PREFIX_MAPPING:
+                handler.endPrefixMapping(string(events[i++]));
+                break;
+            case START_ELEMENT:
+                {
+                    String uri = string(events[i]);
+                    String localName = string(events[i + 1]);
+                    String qName = string(events[i + 2]);
+                    int attCount = events[i + 3];
+                    i += 4;
+                    atts.clear();
+                    for (int j = 0; j < attCount; ++j) {
+                        atts.addAttribute(string(events[i]), string(events[i + 1]),
+                            string(events[i + 2]), string(events[i + 3]),
+                            new String(chars, events[i + 4], events[i + 5]));
+                        i += 6;
+                    }
+                    handler.startElement(uri, localName, qName, atts);
+                }
+                break;
+            case END_ELEMENT:
+                handler.endElement(
+                    string(events[i]), string(events[i + 1]), string(events[i + 2]));
+                i += 3;
+                break;
+            case CHARACTERS:
+                handler.characters(chars, events[i], events[i + 1]);
+                i += 2;
+                break;
+            case IGNORABLE_WHITESPACE:
+                handler.ignorableWhitespace(chars, events[i], events[i + 1]);
+                i += 2;
+                break;
+            case PROCESSING_INSTRUCTION:
+                handler.processingInstruction(string(events[i]),
+                    new String(chars, events[i + 1], events[i + 2]));
+                i += 3;
+                break;
+            case SKIPPED_ENTITY:
+                handler.skippedEntity(string(events[i++]));
+                break;
+            case START_DTD:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startDTD(
+                        string(events[i]), string(events[i + 1]), string(events[i + 2]));
+                }
+                i += 3;
+                break;
+            case END_DTD:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endDTD();
+                }
+                break;
+            case START_ENTITY:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startEntity(string(events[i]));
+                }
+                ++i;
+                break;
+            case END_ENTITY:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endEntity(string(events[i]));
+                }
+                ++i;
+                break;
+            case START_CDATA:
+                if (lexicalHandler != null) {
+                    lexicalHandler.startCDATA();
+                }
+                break;
+            case END_CDATA:
+                if (lexicalHandler != null) {
+                    lexicalHandler.endCDATA();
+                }
+                break;
+            case COMMENT:
+                if (lexicalHandler != null) {
+                    lexicalHandler.comment(chars, events[i], events[i + 1]);
+                }
+                i += 2;
+                break;
+            default:
+                assert false;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Creates a TrAX {@code Source} which replays the recorded events on each parse,
+     * so that the recorded document can be given to a transformer as if it were parsed.
+     *
+     * @param systemId
+     *      the system ID of the document, which can be {@code null}.
+     *
+     * @return
+     *      a new {@code SAXSource} object.
+     */
+    public SAXSource newSource(String systemId) {
+        return new SAXSource(new Replayer(), new InputSource(systemId));
+    }
+
+    private String string(int index) {
+        return (index == NULL) ? null : strings_[index];
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+    }
+
+    @Override
+    public void startDocument() {
+        add(START_DOCUMENT);
+    }
+
+    @Override
+    public void endDocument() {
+        add(END_DOCUMENT);
+        // No more events come, so the buffer is trimmed for the sake of memory
+        events_ = Arrays.copyOf(events_, eventCount_);
+        chars_ = Arrays.copyOf(chars_, charCount_);
+        strings_ = Arrays.copyOf(strings_, stringCount_);
+        stringIndices_ = null;
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) {
+        add(START_PREFIX_MAPPING, intern(prefix), intern(uri));
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) {
+        add(END_PREFIX_MAPPING, intern(prefix));
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) {
+        int attCount = atts.getLength();
+        add(START_ELEMENT, intern(uri), intern(localName), intern(qName), attCount);
+        for (int j = 0; j < attCount; ++j) {
+            String value = atts.getValue(j);
+            add(intern(atts.getURI(j)), intern(atts.getLocalName(j)), intern(atts.getQName(j)),
+                intern(atts.getType(j)), appendChars(value), value.length());
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        add(END_ELEMENT, intern(uri), intern(localName), intern(qName));
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        add(CHARACTERS, appendChars(ch, start, length), length);
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) {
+        add(IGNORABLE_WHITESPACE, appendChars(ch, start, length), length);
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) {
+        String d = (data != null) ? data : "";
+        add(PROCESSING_INSTRUCTION, intern(target), appendChars(d), d.length());
+    }
+
+    @Override
+    public void skippedEntity(String name) {
+        add(SKIPPED_ENTITY, intern(name));
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) {
+        add(START_DTD, intern(name), intern(publicId), intern(systemId));
+    }
+
+    @Override
+    public void endDTD() {
+        add(END_DTD);
+    }
+
+    @Override
+    public void startEntity(String name) {
+        add(START_ENTITY, intern(name));
+    }
+
+    @Override
+    public void endEntity(String name) {
+        add(END_ENTITY, intern(name));
+    }
+
+    @Override
+    public void startCDATA() {
+        add(START_CDATA);
+    }
+
+    @Override
+    public void endCDATA() {
+        add(END_CDATA);
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) {
+        add(COMMENT, appendChars(ch, start, length), length);
+    }
+
+    private int intern(String s) {
+        if (s == null) {
+            return NULL;
+        }
+        Integer index = stringIndices_.get(s);
+        if (index != null) {
+            return index;
+        }
+        if (stringCount_ == strings_.length) {
+            strings_ = Arrays.copyOf(strings_, stringCount_ * 2);
+        }
+        strings_[stringCount_] = s;
+        stringIndices_.put(s, stringCount_);
+        return stringCount_++;
+    }
+
+    private int appendChars(String s) {
+        int start = charCount_;
+        ensureChars(s.length());
+        s.getChars(0, s.length(), chars_, charCount_);
+        charCount_ += s.length();
+        return start;
+    }
+
+    private int appendChars(char[] ch, int start, int length) {
+        int offset = charCount_;
+        ensureChars(length);
+        System.arraycopy(ch, start, chars_, charCount_, length);
+        charCount_ += length;
+        return offset;
+    }
+
+    private void ensureChars(int length) {
+        if (chars_.length - charCount_ < length) {
+            chars_ = Arrays.copyOf(chars_, Math.max(chars_.length * 2, charCount_ + length));
+        }
+    }
+
+    private void add(int a) {
+        ensureEvents(1);
+        events_[eventCount_++] = a;
+    }
+
+    private void add(int a, int b) {
+        ensureEvents(2);
+        events_[eventCount_++] = a;
+        events_[eventCount_++] = b;
+    }
+
+    private void add(int a, int b, int c) {
+        ensureEvents(3);
+        events_[eventCount_++] = a;
+        events_[eventCount_++] = b;
+        events_[eventCount_++] = c;
+    }
+
+    private void add(int a, int b, int c, int d) {
+        ensureEvents(4);
+        events_[eventCount_++] = a;
+        events_[eventCount_++] = b;
+        events_[eventCount_++] = c;
+        events_[eventCount_++] = d;
+    }
+
+    private void add(int a, int b, int c, int d, int e) {
+        add(a, b, c, d);
+        add(e);
+    }
+
+    private void add(int a, int b, int c, int d, int e, int f) {
+        add(a, b, c, d);
+        add(e, f);
+    }
+
+    private void ensureEvents(int length) {
+        if (events_.length - eventCount_ < length) {
+            events_ = Arrays.copyOf(events_, Math.max(events_.length * 2, eventCount_ + length));
+        }
+    }
+
+    /**
+     * An {@code XMLReader} which "parses" a document by replaying the recorded events.
+     * Namespaces are reported only by prefix mappings as the recording SAX parsers did,
+     * so the features to change it are not supported.
+     */
+    private final class Replayer implements XMLReader {
+        private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+        private static final String NAMESPACE_PREFIXES =
+            "http://xml.org/sax/features/namespace-prefixes";
+        private static final String LEXICAL_HANDLER =
+            "http://xml.org/sax/properties/lexical-handler";
+
+        private ContentHandler handler_ = null;
+        private LexicalHandler lexicalHandler_ = null;
+        private DTDHandler dtdHandler_ = null;
+        private EntityResolver resolver_ = null;
+        private ErrorHandler errorHandler_ = null;
+
+        @Override
+        public boolean getFeature(String name)
+                throws SAXNotRecognizedException, SAXNotSupportedException {
+            if (name.equals(NAMESPACES)) {
+                return true;
+            } else if (name.equals(NAMESPACE_PREFIXES)) {
+                return false;
+            } else {
+                throw new SAXNotRecognizedException(name);
+            }
+        }
+
+        @Override
+        public void setFeature(String name, boolean value)
+                throws SAXNotRecognizedException, SAXNotSupportedException {
+            if (getFeature(name) != value) {
+                throw new SAXNotSupportedException(name);
+            }
+        }
+
+        @Override
+        public Object getProperty(String name)
+                throws SAXNotRecognizedException, SAXNotSupportedException {
+            if (name.equals(LEXICAL_HANDLER)) {
+                return lexicalHandler_;
+            } else {
+                throw new SAXNotRecognizedException(name);
+            }
+        }
+
+        @Override
+        public void setProperty(String name, Object value)
+                throws SAXNotRecognizedException, SAXNotSupportedException {
+            if (!name.equals(LEXICAL_HANDLER)) {
+                throw new SAXNotRecognizedException(name);
+            } else if ((value != null) && !(value instanceof LexicalHandler)) {
+                throw new SAXNotSupportedException(name);
+            }
+            lexicalHandler_ = (LexicalHandler) value;
+        }
+
+        @Override
+        public void setEntityResolver(EntityResolver resolver) {
+            resolver_ = resolver;
+        }
+
+        @Override
+        public EntityResolver getEntityResolver() {
+            return resolver_;
+        }
+
+        @Override
+        public void setDTDHandler(DTDHandler handler) {
+            dtdHandler_ = handler;
+        }
+
+        @Override
+        public DTDHandler getDTDHandler() {
+            return dtdHandler_;
+        }
+
+        @Override
+        public void setContentHandler(ContentHandler handler) {
+            handler_ = handler;
+        }
+
+        @Override
+        public ContentHandler getContentHandler() {
+            return handler_;
+        }
+
+        @Override
+        public void setErrorHandler(ErrorHandler handler) {
+            errorHandler_ = handler;
+        }
+
+        @Override
+        public ErrorHandler getErrorHandler() {
+            return errorHandler_;
+        }
+
+        @Override
+        public void parse(InputSource input) throws SAXException {
+            replay((handler_ != null) ? handler_ : new DefaultHandler(), lexicalHandler_);
+        }
+
+        @Override
+        public void parse(String systemId) throws SAXException {
+            parse(new InputSource(systemId));
+        }
+    }
+}
@@ -80,6 +80,14 @@ abstract class Filter extends Sink implements Driver {
         return sinks_.createSnip();
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Validate createValidate() {
+        return sinks_.createValidate();
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -96,6 +104,14 @@ abstract class Filter extends Sink implements Driver {
         force_ = force;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setParallelSinks(boolean parallelSinks) {
+        sinks_.setParallelDispatch(parallelSinks);
+    }
+
     final boolean isForce() {
         return force_;
     }
@@ -0,0 +1,209 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.apache.tools.ant.types.Resource;
+
+/**
+ * A persistent cache of the serialized documents which an <i>{@link All}</i> filter receives
+ * from each original source.
+ *
+ * <p>The documents from one original source are stored in files named
+ * <i>key</i>{@code -}<i>n</i>{@code .xml}, where <i>key</i> is the SHA-256 digest of the
+ * original source file name and <i>n</i> is the zero-based ordinal of the document.
+ * The number of the documents is stored in a file named <i>key</i>{@code .count}, which is
+ * written at last, and whose last modified time is regarded as the time when the documents
+ * are cached.</p>
+ *
+ * <p>Objects of this class are thread safe as long as different original sources are
+ * stored simultaneously.</p>
+ */
+final class FragmentCache {
+
+    private static final Pattern FILE_NAME = Pattern.compile("([0-9a-f]{64})(-[0-9]+\\.xml)?");
+
+    private final Path directory_;
+
+    /**
+     * Sole constructor.
+     *
+     * @param directory
+     *      the absolute path of the directory which stores the cache.
+     */
+    public FragmentCache(Path directory) {
+        directory_ = directory;
+    }
+
+    /**
+     * Returns the directory which stores the cache.
+     *
+     * @return
+     *      the directory, which is not {@code null}.
+     */
+    public Path directory() {
+        return directory_;
+    }
+
+    /**
+     * Creates the directory which stores the cache if it does not exist.
+     *
+     * @throws IOException
+     *      if an I/O error occurs.
+     */
+    public void open() throws IOException {
+        Files.createDirectories(directory_);
+    }
+
+    /**
+     * Creates a temporary file in the directory of the cache,
+     * which can be moved into the cache by {@link #store(String, List)}.
+     *
+     * @return
+     *      the path of the new temporary file.
+     *
+     * @throws IOException
+     *      if an I/O error occurs.
+     */
+    public Path newTemporary() throws IOException {
+        return Files.createTempFile(directory_, ".chionographis-all", ".tmp");
+    }
+
+    /**
+     * Returns the cached documents from an original source if they are up to date.
+     *
+     * @param origSrcFileName
+     *      the file name of the original source, which shall not be {@code null}.
+     * @param finder
+     *      a function which finds a source newer than the specified time.
+     *
+     * @return
+     *      the files which store the documents in their order, or {@code null} if they are
+     *      not cached or are older than the source.
+     */
+    public List<Path> lookUp(String origSrcFileName, LongFunction<Resource> finder) {
+        String key = key(origSrcFileName);
+        Path count = directory_.resolve(key + ".count");
+        long lastModified = count.toFile().lastModified();
+        if ((lastModified == 0) || (finder.apply(lastModified) != null)) {
+            return null;
+        }
+        try {
+            int n = Integer.parseInt(
+                new String(Files.readAllBytes(count), StandardCharsets.US_ASCII).trim());
+            List<Path> files = new ArrayList<>(n);
+            for (int i = 0; i < n; ++i) {
+                Path file = fragment(key, i);
+                if (!Files.exists(file)) {
+                    return null;
+                }
+                files.add(file);
+            }
+            return files;
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the cached documents from an original source with new ones.
+     *
+     * @param origSrcFileName
+     *      the file name of the original source, which shall not be {@code null}.
+     * @param temporaries
+     *      the temporary files created by {@link #newTemporary()} which store the new
+     *      documents in their order, which are moved into the cache.
+     *
+     * @return
+     *      the files which store the documents in the cache in their order.
+     *
+     * @throws IOException
+     *      if an I/O error occurs.
+     */
+    public List<Path> store(String origSrcFileName, List<Path> temporaries) throws IOException {
+        String key = key(origSrcFileName);
+        Path count = directory_.resolve(key + ".count");
+        // The old documents are invalidated first so that a failure leaves no stale cache.
+        Files.deleteIfExists(count);
+        List<Path> files = new ArrayList<>(temporaries.size());
+        for (int i = 0; i < temporaries.size(); ++i) {
+            Path file = fragment(key, i);
+            try {
+                Files.move(temporaries.get(i), file,
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaries.get(i), file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            files.add(file);
+        }
+        for (int i = temporaries.size(); Files.deleteIfExists(fragment(key, i)); ++i) {
+            // Deletes the excess old documents.
+        }
+        Files.write(count,
+            Integer.toString(temporaries.size()).getBytes(StandardCharsets.US_ASCII));
+        return files;
+    }
+
+    /**
+     * Deletes the cached documents from the original sources other than specified ones.
+     *
+     * @param origSrcFileNames
+     *      the file names of the original sources whose documents are retained.
+     *
+     * @throws IOException
+     *      if an I/O error occurs.
+     */
+    public void retainOnly(Collection<String> origSrcFileNames) throws IOException {
+        Set<String> keys = origSrcFileNames.stream()
+                                           .map(FragmentCache::key)
+                                           .collect(Collectors.toSet());
+        List<Path> garbage = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory_)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher m = FILE_NAME.matcher(name.endsWith(".count") ?
+                    name.substring(0, name.length() - 6) : name);
+                if (m.matches() && !keys.contains(m.group(1))) {
+                    garbage.add(file);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        for (Path file : garbage) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private Path fragment(String key, int i) {
+        return directory_.resolve(key + '-' + i + ".xml");
+    }
+
+    private static String key(String origSrcFileName) {
+        byte[] digest = DigestIndex.newDigest().digest(
+            origSrcFileName.getBytes(StandardCharsets.UTF_8));
+        return String.format("%064x", new BigInteger(1, digest));
+    }
+}
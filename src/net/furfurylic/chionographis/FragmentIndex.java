@@ -0,0 +1,175 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * A persistent index of the content digests of document fragments.
+ *
+ * <p>Each entry of the index records the digest of the content of a fragment identified by a
+ * key, and the time since when the fragment has had the content.</p>
+ *
+ * <p>Objects of this class are thread-safe.</p>
+ */
+final class FragmentIndex {
+
+    private final Path file_;
+    private final ConcurrentMap<String, Entry> entries_ = new ConcurrentHashMap<>();
+
+    /** The keys which have been looked up since this index was loaded. */
+    private final Set<String> seen_ = ConcurrentHashMap.newKeySet();
+    private volatile boolean modified_ = false;
+
+    private FragmentIndex(Path file) {
+        file_ = file;
+    }
+
+    /**
+     * Loads an index from a file.
+     *
+     * <p>If the file does not exist, this method returns an empty index.
+     * Malformed entries in the file are ignored.</p>
+     *
+     * @param file
+     *      the file which stores the index, which shall not be {@code null}.
+     *
+     * @return
+     *      a new index, which is not {@code null}.
+     *
+     * @throws IOException
+     *      if an I/O error occurs in reading the file.
+     */
+    public static FragmentIndex load(Path file) throws IOException {
+        FragmentIndex index = new FragmentIndex(file);
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return index;
+        }
+        for (Map.Entry<Object, Object> property : properties.entrySet()) {
+            Entry entry = Entry.parse(property.getValue().toString());
+            if (entry != null) {
+                index.entries_.put(property.getKey().toString(), entry);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the time since when a fragment has had the content with a digest,
+     * recording the digest with the current time if the content has changed.
+     *
+     * @param key
+     *      the key which identifies the fragment, which shall not be {@code null}.
+     * @param digest
+     *      the digest of the current content of the fragment, which shall not be {@code null}.
+     *
+     * @return
+     *      the time in milliseconds since the epoch, which is the current time if the fragment
+     *      is not known to this index or its content has changed.
+     */
+    public long since(String key, byte[] digest) {
+        seen_.add(key);
+        return entries_.compute(key, (k, v) -> {
+            if ((v != null) && Arrays.equals(v.digest_, digest)) {
+                return v;
+            } else {
+                modified_ = true;
+                return new Entry(System.currentTimeMillis(), digest);
+            }
+        }).since_;
+    }
+
+    /**
+     * Removes the entries which have not been looked up since this index was loaded
+     * among those of the fragments which are known to have been reexamined.
+     *
+     * @param reexamined
+     *      a predicate which tells whether a key belongs to a fragment which has been
+     *      reexamined, which shall not be {@code null}.
+     */
+    public void prune(Predicate<String> reexamined) {
+        if (entries_.keySet().removeIf(k -> !seen_.contains(k) && reexamined.test(k))) {
+            modified_ = true;
+        }
+    }
+
+    /**
+     * Stores this index into the file from which it has been loaded if modified.
+     *
+     * @throws IOException
+     *      if an I/O error occurs in writing the file.
+     */
+    public void store() throws IOException {
+        if (!modified_) {
+            return;
+        }
+        Properties properties = new Properties();
+        entries_.forEach((k, v) -> properties.setProperty(k, v.toString()));
+        Path parent = file_.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path temporary = Files.createTempFile(parent, "." + file_.getFileName(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                properties.store(out, "Chionographis fragment index");
+            }
+            try {
+                Files.move(temporary, file_,
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file_, StandardCopyOption.REPLACE_EXISTING);
+            }
+            modified_ = false;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static final class Entry {
+        private final long since_;
+        private final byte[] digest_;
+
+        Entry(long since, byte[] digest) {
+            since_ = since;
+            digest_ = digest;
+        }
+
+        static Entry parse(String s) {
+            String[] fields = s.split(",");
+            if (fields.length != 2) {
+                return null;
+            }
+            try {
+                return new Entry(Long.parseLong(fields[0]), DigestIndex.fromHex(fields[1]));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return since_ + "," + DigestIndex.toHex(digest_);
+        }
+    }
+}
@@ -7,35 +7,54 @@
 
 package net.furfurylic.chionographis;
 
-import java.io.ByteArrayOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
 import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Function;
 import java.util.function.LongFunction;
 import java.util.stream.Collectors;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.transform.Result;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.Resource;
@@ -48,8 +67,90 @@ import net.furfurylic.chionographis.Logger.Level;
  * An <i>Output</i> {@linkplain Sink sink} writes each source document into an filesystem file.
  */
 public final class Output extends Sink {
-    private static final Pool<ExposingByteArrayOutputStream> BUFFER =
-        new Pool<>(() -> new ExposingByteArrayOutputStream());
+
+    /**
+     * This type defines the set of compression formats of output files.
+     *
+     * @see Output#setCompress(String)
+     */
+    public enum Compression {
+        /** The gzip format (RFC 1952). The corresponding string expression is "gzip". */
+        GZIP {
+            @Override
+            OutputStream wrap(OutputStream out) throws IOException {
+                return new GZIPOutputStream(out, 8192);
+            }
+
+            @Override
+            void compress(byte[] input, int length, OutputStream out) throws IOException {
+                // The modification time is left zero so that the output is reproducible.
+                out.write(new byte[] {
+                    0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff });
+                ParallelDeflater.deflate(input, length, out);
+                writeLittleEndian(checksum(new CRC32(), input, length), out);
+                writeLittleEndian(length, out);
+            }
+        },
+
+        /**
+         * The zlib format (RFC 1950), which is often called "deflate" as in HTTP.
+         * The corresponding string expression is "deflate".
+         */
+        DEFLATE {
+            @Override
+            OutputStream wrap(OutputStream out) throws IOException {
+                return new DeflaterOutputStream(out);
+            }
+
+            @Override
+            void compress(byte[] input, int length, OutputStream out) throws IOException {
+                // CM=8 (deflate), CINFO=7 (32K window), FLEVEL=2 (default)
+                out.write(new byte[] { 0x78, (byte) 0x9c });
+                ParallelDeflater.deflate(input, length, out);
+                int adler = checksum(new Adler32(), input, length);
+                out.write(new byte[] {
+                    (byte) (adler >>> 24), (byte) (adler >>> 16),
+                    (byte) (adler >>> 8), (byte) adler });
+            }
+        };
+
+        /**
+         * Wraps an output stream into a stream which compresses sequentially.
+         */
+        abstract OutputStream wrap(OutputStream out) throws IOException;
+
+        /**
+         * Compresses a whole content at once in parallel.
+         */
+        abstract void compress(byte[] input, int length, OutputStream out) throws IOException;
+
+        private static int checksum(Checksum checksum, byte[] input, int length) {
+            checksum.update(input, 0, length);
+            return (int) checksum.getValue();
+        }
+
+        private static void writeLittleEndian(int value, OutputStream out) throws IOException {
+            out.write(new byte[] {
+                (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) });
+        }
+    }
+
+    /** The number of the threads which write output files asynchronously per one sink. */
+    private static final int WRITER_COUNT = 2;
+
+    /** The maximum number of the finished documents waiting to be written per one sink. */
+    private static final int WRITER_QUEUE_CAPACITY = 16;
+
+    /** The size of the regions of files mapped into memory at once to be compared. */
+    private static final long MAPPED_REGION_SIZE = 1L << 26;
+
+    /**
+     * Whether files are compared by mapping them into memory.
+     * On Windows, files mapped into memory cannot be overwritten or deleted until they are
+     * unmapped by the garbage collector, so they are read into buffers instead.
+     */
+    private static final boolean MAPS_FILES =
+        !System.getProperty("os.name", "").startsWith("Windows");
 
     private Path destDir_ = null;
     private Path dest_ = null;
@@ -57,6 +158,12 @@ public final class Output extends Sink {
     private String refer_ = null;
     private boolean force_ = false;
     private boolean timid_ = false;
+    private Path timidIndex_ = null;
+    private boolean buffers_ = true;
+    private boolean async_ = false;
+    private boolean links_ = false;
+    private Compression compression_ = null;
+    private Path archive_ = null;
     private boolean dryRun_ = false;
     private FileNameMapper mapper_ = null;
 
@@ -72,6 +179,36 @@ public final class Output extends Sink {
 
     private AtomicInteger countInBundle_;
 
+    /** The names of the original sources whose outputs failed to be written asynchronously. */
+    private ConcurrentLinkedQueue<String> failedInBundle_;
+
+    /** The files written asynchronously in the current bundle, or {@code null}. */
+    private ConcurrentLinkedQueue<Path> writtenInBundle_ = null;
+
+    /** The index of the digests of the destination files used in timid mode, or null. */
+    private DigestIndex index_ = null;
+
+    /** The executor of asynchronous writing, which is {@code null} unless writing is async. */
+    private ThreadPoolExecutor writer_ = null;
+
+    /** The directories which are known to exist in the current bundle. */
+    private Set<Path> knownDirectories_ = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The parent directories of the destination files of the sources to be processed, which
+     * are found by {@link #preexamineBundle(String[], LongFunction[])}, or {@code null}.
+     */
+    private Set<Path> plannedDirectories_ = null;
+
+    /** Whether the archive shall be rewritten in the current bundle. */
+    private boolean rebuildsArchive_ = true;
+
+    /** The writer of the archive, which is {@code null} unless the archive is being written. */
+    private ZipArchiveWriter archiveWriter_ = null;
+
+    /** Whether the output of at least one source has failed to be archived in the bundle. */
+    private volatile boolean archiveIncomplete_ = false;
+
     /**
      * Sole constructor.
      */
@@ -180,6 +317,133 @@ public final class Output extends Sink {
         timid_ = timid;
     }
 
+    /**
+     * Sets the file path of the index of the content digests of the destination files,
+     * which is used in {@linkplain #setTimid(boolean) timid mode}.
+     * If the given string represents an relative path,
+     * it is resolved by {@linkplain #setDestDir(String) the destination directory}.
+     *
+     * <p>If set, this sink records the size, the last modified time and the content digest of
+     * each destination file in the index. When an existing destination file has the recorded
+     * size and last modified time, it is compared with the content about to be written by
+     * their digests without being read. Otherwise it is read to be compared.
+     * If not in timid mode, this attribute is ignored.</p>
+     *
+     * @param timidIndex
+     *      the file path of the index.
+     */
+    public void setTimidIndex(String timidIndex) {
+        timidIndex_ = Paths.get(timidIndex);
+    }
+
+    /**
+     * Sets whether this sink should hold each output document in memory until it is finished.
+     * Defaulted to {@code true}.
+     *
+     * <p>If set to {@code false}, each output document is streamed into a temporary file in the
+     * directory of the destination file, which is renamed to the destination file when the
+     * document is finished, or is deleted when the processing of the document is aborted.
+     * This keeps the memory consumption flat regardless of the sizes of the output documents.
+     * In "dry run" mode, output documents are held in memory regardless of this attribute.</p>
+     *
+     * @param buffer
+     *      {@code true} if holds output documents in memory; {@code false} otherwise.
+     */
+    public void setBuffer(boolean buffer) {
+        buffers_ = buffer;
+    }
+
+    /**
+     * Sets the compression format of the output files.
+     * Only {@link Compression} objects' string expression can be accepted.
+     * By default, output files are not compressed.
+     *
+     * <p>Output documents held in memory are split into blocks which are compressed in
+     * parallel. Output documents {@linkplain #setBuffer(boolean) streamed into temporary
+     * files} are compressed sequentially.</p>
+     *
+     * <p>Note that this attribute does not affect the destination file names;
+     * it is up to the file mappers or the destination file paths to give them
+     * suitable extensions such as ".gz".</p>
+     *
+     * @param compress
+     *      a {@link Compression} object's string expression.
+     */
+    public void setCompress(String compress) {
+        try {
+            compression_ = Compression.valueOf(compress.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BuildException("Bad \"compress\" attribute value: " + compress,
+                getLocation());
+        }
+    }
+
+    /**
+     * Sets whether this sink should write output files on its own threads.
+     * Defaulted to {@code false}.
+     *
+     * <p>If set to {@code true}, finished documents are queued and written by a few threads
+     * dedicated to this sink, so that the threads which process source documents do not wait
+     * for the storage. The queue is bounded; when it is full, the thread which has finished
+     * a document writes it by itself. All queued documents are written, and the written files
+     * are flushed to the storage device, before the processing of the task ends.</p>
+     *
+     * <p>Failures in asynchronous writing, including writing by the threads which have finished
+     * documents, are reported together with the names of the original sources when all queued
+     * documents have been written, as a nonfatal error.</p>
+     *
+     * @param async
+     *      {@code true} if writes output files asynchronously; {@code false} otherwise.
+     */
+    public void setAsync(boolean async) {
+        async_ = async;
+    }
+
+    /**
+     * Sets whether this sink should make hard links to the first written destination file
+     * instead of writing the same content into the other destination files, when one source
+     * is mapped to multiple destination files. Defaulted to {@code false}.
+     *
+     * <p>Where hard links cannot be made, for example because the file system does not support
+     * them or the destination files are on different file systems, the first written
+     * destination file is copied instead. Existing destination files are replaced rather than
+     * overwritten in place, so that files linked in previous runs are not affected.</p>
+     *
+     * @param link
+     *      {@code true} if makes hard links; {@code false} otherwise.
+     */
+    public void setLink(boolean link) {
+        links_ = link;
+    }
+
+    /**
+     * Sets the file path of a zip archive into which all output documents are written
+     * as its entries. If the given string represents an relative path,
+     * it is resolved by {@linkplain #setDestDir(String) the destination directory}.
+     *
+     * <p>If set, no destination files are created. Instead, each output document is stored in
+     * the archive as an entry whose name is the relative path of the destination file from
+     * {@linkplain #setDestDir(String) the destination directory}; so the destination files
+     * shall be inside the destination directory. The entries are compressed in parallel
+     * and written into a temporary file, which replaces the archive when all the sources
+     * have been processed.</p>
+     *
+     * <p>The archive is rewritten as a whole, so if at least one source is newer than the
+     * archive, all sources are processed. If the output of at least one source fails to be
+     * archived, the existing archive is left untouched.</p>
+     *
+     * <p>In this mode, {@linkplain #setTimid(boolean) timid mode},
+     * {@linkplain #setBuffer(boolean) buffering}, {@linkplain #setAsync(boolean) asynchronous
+     * writing}, {@linkplain #setCompress(String) compression} and {@linkplain
+     * #setLink(boolean) linking} are not applied.</p>
+     *
+     * @param archive
+     *      the file path of the archive.
+     */
+    public void setArchive(String archive) {
+        archive_ = Paths.get(archive);
+    }
+
     /**
      * Installs a file mapper.
      * The file mapper maps a source file name to an destination file name.
@@ -235,9 +499,8 @@ public final class Output extends Sink {
             // No predefined destination path exists
             // and specified to refer the source document contents.
             try {
-                XPath xpath = XPathFactory.newInstance().newXPath();
-                xpath.setNamespaceContext(namespaceContext);
-                referents_ = Collections.singletonList(xpath.compile(refer_));
+                referents_ = Collections.singletonList(
+                    new PerThreadXPathExpression(refer_, namespaceContext));
             } catch (XPathExpressionException e) {
                 throw new BuildException(
                     "Failed to compile XPath expression: " + refer_, e, getLocation());
@@ -269,6 +532,14 @@ public final class Output extends Sink {
             destMapping_ = null;
         }
 
+        if (timidIndex_ != null) {
+            timidIndex_ = destDir_.resolve(timidIndex_);
+        }
+        if (archive_ != null) {
+            archive_ = destDir_.resolve(archive_);
+        }
+        rebuildsArchive_ = true;
+
         force_ = force_ || force;
         dryRun_ = dryRun;
     }
@@ -278,6 +549,12 @@ public final class Output extends Sink {
         private Path destDir_ = null;
         private FileNameMapper mapper_ = null;
 
+        /**
+         * The results of the mapping, which are memoized so that the lock is taken only once
+         * for each name.
+         */
+        private final ConcurrentMap<String, Set<Path>> mapped_ = new ConcurrentHashMap<>();
+
         public DestinationMapping(Path destDir, FileNameMapper mapper) {
             destDir_ = destDir;
             mapper_ = mapper;
@@ -286,19 +563,25 @@ public final class Output extends Sink {
         @Override
         public Set<Path> apply(String orgSrcFileName) {
             if (orgSrcFileName != null) {
-                String[] mapped;
-                // Ant's FileNameMapper seems not to be thread safe.
-                LOCK.lock();
-                try {
-                    mapped = mapper_.mapFileName(orgSrcFileName);
-                } finally {
-                    LOCK.unlock();
-                }
-                if (mapped != null) {
-                    return Arrays.stream(mapped)
-                                  .map(destDir_::resolve)
-                                  .collect(Collectors.toSet());
-                }
+                return mapped_.computeIfAbsent(orgSrcFileName, this::map);
+            }
+            return Collections.emptySet();
+        }
+
+        private Set<Path> map(String orgSrcFileName) {
+            String[] mapped;
+            // Ant's FileNameMapper seems not to be thread safe,
+            // and it offers no general way to be cloned.
+            LOCK.lock();
+            try {
+                mapped = mapper_.mapFileName(orgSrcFileName);
+            } finally {
+                LOCK.unlock();
+            }
+            if (mapped != null) {
+                return Collections.unmodifiableSet(Arrays.stream(mapped)
+                                                         .map(destDir_::resolve)
+                                                         .collect(Collectors.toSet()));
             }
             return Collections.emptySet();
         }
@@ -309,16 +592,53 @@ public final class Output extends Sink {
         return referents_;
     }
 
+    @Override
+    Plan plan() {
+        String description;
+        if (archive_ != null) {
+            description = "Output (archive=" + archive_ + ")";
+        } else if (dest_ != null) {
+            description = "Output (dest=" + dest_ + ")";
+        } else {
+            description = "Output (destDir=" + destDir_ + ")";
+        }
+        if (compression_ != null) {
+            description += " compressed in " + compression_.name().toLowerCase();
+        }
+        return Plan.leaf(description, Plan.Form.BYTES);
+    }
+
     @Override
     boolean[] preexamineBundle(String[] origSrcFileNames, LongFunction<Resource>[] finders) {
         boolean[] includes = new boolean[origSrcFileNames.length];
-        if (force_ || !referents_.isEmpty()) {
+        if (!referents_.isEmpty()) {
             Arrays.fill(includes, true);
+        } else if (force_) {
+            // Maps the names in advance so that processing of each source needs no mapping.
+            assert destMapping_ != null;
+            for (String origSrcFileName : origSrcFileNames) {
+                destMapping_.apply(origSrcFileName);
+            }
+            Arrays.fill(includes, true);
+        } else if (archive_ != null) {
+            // The archive is rewritten as a whole, so all sources or none are processed.
+            Set<Path> archive = Collections.singleton(archive_);
+            rebuildsArchive_ = Arrays.stream(finders).anyMatch(f -> isOrigSrcNewer(f, archive));
+            if (!rebuildsArchive_) {
+                logger_.log(this, "The archive is up to date: " + archive_, Level.DEBUG);
+            }
+            Arrays.fill(includes, rebuildsArchive_);
         } else {
             assert destMapping_ != null;
+            plannedDirectories_ = new HashSet<>();
             for (int i = 0; i < origSrcFileNames.length; ++i) {
-                includes[i] = isOrigSrcNewer(
-                    finders[i], destMapping_.apply(origSrcFileNames[i]));
+                Set<Path> dests = destMapping_.apply(origSrcFileNames[i]);
+                includes[i] = isOrigSrcNewer(finders[i], dests);
+                if (includes[i]) {
+                    for (Path dest : dests) {
+                        plannedDirectories_.add(dest.toAbsolutePath().getParent());
+                    }
+                }
             }
         }
         return includes;
@@ -327,13 +647,59 @@ public final class Output extends Sink {
     @Override
     void startBundle() {
         countInBundle_ = new AtomicInteger(0);
+        failedInBundle_ = new ConcurrentLinkedQueue<>();
+        knownDirectories_ = ConcurrentHashMap.newKeySet();
+        if ((plannedDirectories_ != null) && mkDirs_ && !dryRun_) {
+            // Creates all directories at once rather than checking them for each file.
+            for (Path directory : plannedDirectories_) {
+                try {
+                    createDirectories(directory);
+                } catch (NonfatalBuildException e) {
+                    // Left to be reported when a file is written into it.
+                }
+            }
+        }
+        plannedDirectories_ = null;
+        if (archive_ != null) {
+            archiveIncomplete_ = false;
+            if (rebuildsArchive_ && !dryRun_) {
+                if (mkDirs_) {
+                    createDirectories(archive_.getParent());
+                }
+                try {
+                    archiveWriter_ = new ZipArchiveWriter(archive_, LocalDateTime.now());
+                } catch (IOException e) {
+                    throw new BuildException("Failed to create " + archive_, e, getLocation());
+                }
+            }
+            return;
+        }
+        if (timid_ && (timidIndex_ != null)) {
+            try {
+                index_ = DigestIndex.load(timidIndex_);
+            } catch (IOException e) {
+                logger_.log(this, "Failed to load the digest index " + timidIndex_
+                    + "; existing destination files will be read to be compared", Level.WARN);
+                logger_.log(this, e, "  Cause: ", Level.INFO, Level.VERBOSE);
+                index_ = null;
+            }
+        }
+        if (async_ && !dryRun_) {
+            writer_ = new ThreadPoolExecutor(WRITER_COUNT, WRITER_COUNT, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(WRITER_QUEUE_CAPACITY),
+                r -> {
+                    Thread thread = new Thread(r, "chionographis-output");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+            writtenInBundle_ = new ConcurrentLinkedQueue<>();
+        }
     }
 
     @Override
     Result startOne(int origSrcIndex, String origSrcFileName,
             LongFunction<Resource> finder, List<String> referredContents) {
-        OutputStream buffer = BUFFER.get();
-
         // Configure dests.
         Set<Path> dests = Collections.<Path>emptySet();
         if (referents_.isEmpty()) {
@@ -345,10 +711,16 @@ public final class Output extends Sink {
                 Collections.singleton(destDir_.resolve(referredContents.get(0)));
         }
         if (dests.isEmpty()) {
+            archiveIncomplete_ = true;
             throw new NonfatalBuildException("Cannot decide the output file path", getLocation());
         }
 
-        if (!force_ && !isOrigSrcNewer(finder, dests)) {
+        if (archive_ != null) {
+            // Up-to-dateness has been examined for the archive as a whole.
+            return rebuildsArchive_ ? new OutputStreamResult(
+                new PooledByteArrayOutputStream(BufferPool.BYTES), origSrcFileName, dests, null) :
+                null;
+        } else if (!force_ && !isOrigSrcNewer(finder, dests)) {
             if (dests.size() > 1) {
                 String files = dests.stream()
                                     .map(Path::toString)
@@ -361,7 +733,65 @@ public final class Output extends Sink {
             return null;
         }
 
-        return new OutputStreamResult(buffer, dests);
+        if (buffers_ || dryRun_) {
+            return new OutputStreamResult(
+                new PooledByteArrayOutputStream(BufferPool.BYTES), origSrcFileName, dests, null);
+        } else {
+            return openTemporary(origSrcFileName, dests);
+        }
+    }
+
+    /**
+     * Creates a temporary file into which an output document is streamed.
+     *
+     * @param origSrcFileName
+     *      the file name of the corresponding original source, which can be {@code null}.
+     * @param dests
+     *      the destination files of the output document, which shall not be empty.
+     *
+     * @return
+     *      a TrAX {@code Result} object which writes into the temporary file.
+     */
+    private OutputStreamResult openTemporary(String origSrcFileName, Set<Path> dests) {
+        // The temporary file is placed in the same directory as one of the destinations
+        // so that it can be atomically renamed to it.
+        Path dest = dests.iterator().next().toAbsolutePath();
+        Path parent = dest.getParent();
+        if (mkDirs_) {
+            createDirectories(parent);
+        }
+        // Files.createTempFile is not used because it makes files accessible only by the owner.
+        Path temporary = parent.resolve("." + dest.getFileName() + '.'
+            + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new BufferedOutputStream(Files.newOutputStream(temporary,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+            MessageDigest digest = null;
+            if (index_ != null) {
+                // The digest is taken on the fly in order not to read the temporary file again.
+                digest = DigestIndex.newDigest();
+                out = new DigestOutputStream(out, digest);
+            }
+            if (compression_ != null) {
+                out = compression_.wrap(out);
+            }
+            OutputStreamResult result =
+                new OutputStreamResult(out, origSrcFileName, dests, temporary);
+            result.setDigest(digest);
+            return result;
+        } catch (IOException e) {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e2) {
+                    e.addSuppressed(e2);
+                }
+                deleteTemporary(temporary);
+            }
+            throw new NonfatalBuildException(
+                "Failed to create a temporary file for " + dest, e, getLocation());
+        }
     }
 
     private boolean isOrigSrcNewer(LongFunction<Resource> finder, Set<Path> dests) {
@@ -410,57 +840,359 @@ public final class Output extends Sink {
         assert result != null;
         assert result instanceof OutputStreamResult : result.getClass();
         OutputStreamResult r = (OutputStreamResult) result;
-        ExposingByteArrayOutputStream out = (ExposingByteArrayOutputStream) r.getOutputStream();
+        if (archive_ != null) {
+            archive(r);
+        } else if (writer_ != null) {
+            writer_.execute(() -> writeAsync(r));
+        } else {
+            write(r);
+        }
+    }
+
+    private void writeAsync(OutputStreamResult r) {
+        try {
+            write(r);
+        } catch (RuntimeException e) {
+            String origSrc = (r.getOrigSrcFileName() != null) ?
+                r.getOrigSrcFileName() : "an unnamed source";
+            failedInBundle_.add(origSrc);
+            logger_.log(this, "Failed to write the output of " + origSrc, Level.WARN);
+            logger_.log(this, e, "  Cause: ", Level.INFO, Level.VERBOSE);
+        }
+    }
+
+    /**
+     * Writes the contents of a finished document into its destination files.
+     *
+     * @param r
+     *      a TrAX {@code Result} object returned by
+     *      {@link #startOne(int, String, LongFunction, List)}, whose resources this method
+     *      releases.
+     */
+    private void write(OutputStreamResult r) {
+        Path temporary = r.getTemporary();
 
-        // Write the buffer contents to currentDests_.
         try {
+            long size;
+            if (temporary != null) {
+                try {
+                    r.getOutputStream().close();
+                    size = Files.size(temporary);
+                } catch (IOException e) {
+                    throw new NonfatalBuildException(
+                        "Failed to write " + temporary, e, getLocation());
+                }
+            } else {
+                if (compression_ != null) {
+                    compress(r);
+                }
+                size = ((PooledByteArrayOutputStream) r.getOutputStream()).size();
+            }
+
+            byte[] digest = (index_ != null) ? digest(r) : null;
+
+            // Decide the destinations to write.
+            List<Path> writtens = new ArrayList<>(r.getDestinations().size());
             for (Path mapped : r.getDestinations()) {
                 Path absolute = mapped.toAbsolutePath();
-
                 if (timid_) {
                     File file = absolute.toFile();
-                    if (file.exists() && (file.length() == out.size())
-                     && hasIdenticalContent(file, out.buffer())) {
+                    if (file.exists() && (file.length() == size)
+                     && hasIdenticalContent(file, size, r, digest)) {
                         logger_.log(this, "No need to overwrite the output file: " + absolute,
                             Level.FINE);
+                        if ((digest != null) && !dryRun_) {
+                            index_.put(absolute, digest);
+                        }
                         continue;
                     }
                 }
+                writtens.add(absolute);
+            }
 
+            // Write the contents to the destinations.
+            for (int i = 0; i < writtens.size(); ++i) {
+                Path absolute = writtens.get(i);
                 if (dryRun_) {
                     logger_.log(this, "[DRY RUN] Creating " + absolute, Level.FINE);
 
                 } else {
                     if (mkDirs_) {
-                        Path parent = mapped.getParent();
-                        if ((parent != null) && !Files.exists(parent)) {
-                            try {
-                                Files.createDirectories(parent);
-                            } catch (IOException e) {
-                                throw new NonfatalBuildException(
-                                    "Failed to create directory " + parent, e, getLocation());
+                        createDirectories(absolute.getParent());
+                    }
+                    try {
+                        if (links_ && (i > 0)) {
+                            link(writtens.get(0), absolute);
+                        } else {
+                            logger_.log(this, "Creating " + absolute, Level.FINE);
+                            if (temporary == null) {
+                                if (links_) {
+                                    // Breaks the link which may have been made in previous runs.
+                                    Files.deleteIfExists(absolute);
+                                }
+                                PooledByteArrayOutputStream out =
+                                    (PooledByteArrayOutputStream) r.getOutputStream();
+                                try (FileChannel channel = FileChannel.open(absolute,
+                                        StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                                    channel.write(
+                                        ByteBuffer.wrap(out.buffer(), 0, out.size()));
+                                }
+                            } else if (!links_ && (i + 1 < writtens.size())) {
+                                Files.copy(temporary, absolute,
+                                    StandardCopyOption.REPLACE_EXISTING);
+                            } else {
+                                // The link made in previous runs is broken by the move.
+                                moveTemporary(temporary, absolute);
                             }
                         }
-                    }
-                    logger_.log(this, "Creating " + absolute, Level.FINE);
-                    try (FileChannel channel = FileChannel.open(absolute,
-                            StandardOpenOption.WRITE, StandardOpenOption.CREATE,
-                            StandardOpenOption.TRUNCATE_EXISTING)) {
-                        channel.write(ByteBuffer.wrap(out.buffer(), 0, out.size()));
                     } catch (IOException e) {
                         throw new NonfatalBuildException(
                             "Failed to create " + absolute, e, getLocation());
                     }
+                    if (digest != null) {
+                        index_.put(absolute, digest);
+                    }
+                    if (writtenInBundle_ != null) {
+                        writtenInBundle_.add(absolute);
+                    }
                     countInBundle_.incrementAndGet();
                 }
             }
         } finally {
-            placeBackBuffer(out);
+            release(r);
+        }
+    }
+
+    /**
+     * Makes a destination file a hard link to another destination file already written,
+     * or a copy of it if hard links are not available.
+     */
+    private void link(Path existing, Path link) throws IOException {
+        Files.deleteIfExists(link);
+        try {
+            Files.createLink(link, existing);
+            logger_.log(this, "Linking " + link + " to " + existing, Level.FINE);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            logger_.log(this, "Copying " + existing + " to " + link
+                + " as a hard link cannot be made", Level.FINE);
+            Files.copy(existing, link, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Writes the content and the metadata of a file through to the storage device.
+     */
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Writes the contents of a finished document into the archive.
+     *
+     * @param r
+     *      a TrAX {@code Result} object returned by
+     *      {@link #startOne(int, String, LongFunction, List)}, whose resources this method
+     *      releases.
+     */
+    private void archive(OutputStreamResult r) {
+        try {
+            PooledByteArrayOutputStream out = (PooledByteArrayOutputStream) r.getOutputStream();
+            for (Path mapped : r.getDestinations()) {
+                Path absolute = mapped.toAbsolutePath().normalize();
+                Path destDir = destDir_.normalize();
+                if (!absolute.startsWith(destDir)) {
+                    throw new NonfatalBuildException("Cannot archive " + absolute
+                        + " which is out of the destination directory", getLocation());
+                }
+                String name = destDir.relativize(absolute).toString()
+                    .replace(File.separatorChar, '/');
+                if (dryRun_) {
+                    logger_.log(this, "[DRY RUN] Archiving " + name, Level.FINE);
+                    continue;
+                }
+                logger_.log(this, "Archiving " + name, Level.FINE);
+                // Compression is done here in parallel and only writing is serialized.
+                ZipArchiveWriter.Entry entry =
+                    ZipArchiveWriter.prepare(name, out.buffer(), out.size());
+                try {
+                    if (!archiveWriter_.write(entry)) {
+                        throw new NonfatalBuildException(
+                            "Archive entry " + name + " added twice", getLocation());
+                    }
+                } catch (IOException e) {
+                    throw new NonfatalBuildException(
+                        "Failed to write " + name + " into " + archive_, e, getLocation());
+                }
+                countInBundle_.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            archiveIncomplete_ = true;
+            throw e;
+        } finally {
+            release(r);
+        }
+    }
+
+    private void createDirectories(Path directory) {
+        if ((directory != null) && !knownDirectories_.contains(directory)) {
+            if (!Files.exists(directory)) {
+                try {
+                    Files.createDirectories(directory);
+                } catch (IOException e) {
+                    throw new NonfatalBuildException(
+                        "Failed to create directory " + directory, e, getLocation());
+                }
+            }
+            knownDirectories_.add(directory);
+        }
+    }
+
+    private static void moveTemporary(Path temporary, Path dest) throws IOException {
+        try {
+            Files.move(temporary, dest,
+                StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            // The destination is on another file store than the temporary file.
+            Files.move(temporary, dest, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void deleteTemporary(Path temporary) {
+        try {
+            Files.deleteIfExists(temporary);
+        } catch (IOException e) {
+            logger_.log(this, "Failed to delete a temporary file " + temporary, Level.WARN);
+        }
+    }
+
+    /**
+     * Replaces the in-memory content of a result with its compressed form.
+     */
+    private void compress(OutputStreamResult result) {
+        PooledByteArrayOutputStream plain = (PooledByteArrayOutputStream) result.getOutputStream();
+        PooledByteArrayOutputStream compressed = new PooledByteArrayOutputStream(BufferPool.BYTES);
+        try {
+            compression_.compress(plain.buffer(), plain.size(), compressed);
+        } catch (IOException | RuntimeException e) {
+            compressed.recycle();
+            throw new NonfatalBuildException("Failed to compress the output", e, getLocation());
         }
+        result.setOutputStream(compressed);
+        plain.recycle();
+    }
+
+    private static byte[] digest(OutputStreamResult result) {
+        if (result.getDigest() != null) {
+            return result.getDigest().digest();
+        } else {
+            PooledByteArrayOutputStream out =
+                (PooledByteArrayOutputStream) result.getOutputStream();
+            MessageDigest digest = DigestIndex.newDigest();
+            digest.update(out.buffer(), 0, out.size());
+            return digest.digest();
+        }
+    }
+
+    /**
+     * Tells whether an existing file has the identical content to an output document.
+     *
+     * @param file
+     *      the existing file, which shall not be {@code null}.
+     * @param size
+     *      the size of the output document, which shall be the same as the size of the file.
+     * @param result
+     *      the result which holds the output document, which shall not be {@code null}.
+     * @param digest
+     *      the digest of the output document, or {@code null} if no digest index is used.
+     *
+     * @return
+     *      {@code true} if identical; {@code false} otherwise.
+     */
+    private boolean hasIdenticalContent(File file, long size, OutputStreamResult result,
+            byte[] digest) {
+        if (digest != null) {
+            Boolean identical = index_.isIdentical(file.toPath().toAbsolutePath(), digest);
+            if (identical != null) {
+                return identical.booleanValue();
+            }
+            logger_.log(this, "The digest index does not know the current content of " + file,
+                Level.DEBUG);
+        }
+        if (MAPS_FILES) {
+            return hasIdenticalContentMapped(file, size, result);
+        } else if (result.getTemporary() != null) {
+            return hasIdenticalContent(file, result.getTemporary());
+        } else {
+            return hasIdenticalContent(file,
+                ((PooledByteArrayOutputStream) result.getOutputStream()).buffer());
+        }
+    }
+
+    private boolean hasIdenticalContentMapped(File file, long size, OutputStreamResult result) {
+        Path temporary = result.getTemporary();
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel content = (temporary != null) ?
+                FileChannel.open(temporary, StandardOpenOption.READ) : null) {
+            for (long position = 0; position < size; position += MAPPED_REGION_SIZE) {
+                long length = Math.min(MAPPED_REGION_SIZE, size - position);
+                ByteBuffer expected = (content != null) ?
+                    content.map(MapMode.READ_ONLY, position, length) :
+                    ByteBuffer.wrap(
+                        ((PooledByteArrayOutputStream) result.getOutputStream()).buffer(),
+                        (int) position, (int) length);
+                if (!in.map(MapMode.READ_ONLY, position, length).equals(expected)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            throw new NonfatalBuildException("Failed to read " + file, e, getLocation());
+        }
+    }
+
+    private boolean hasIdenticalContent(File file, Path content) {
+        byte[] bytes1 = BufferPool.BYTES.get(4096);
+        byte[] bytes2 = BufferPool.BYTES.get(4096);
+        try (FileChannel in1 = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             FileChannel in2 = FileChannel.open(content, StandardOpenOption.READ)) {
+            ByteBuffer buffer1 = ByteBuffer.wrap(bytes1);
+            ByteBuffer buffer2 = ByteBuffer.wrap(bytes2);
+            for (;;) {
+                buffer1.clear();
+                buffer2.clear();
+                fill(in1, buffer1);
+                fill(in2, buffer2);
+                buffer1.flip();
+                buffer2.flip();
+                if (!buffer1.equals(buffer2)) {
+                    return false;
+                } else if (!buffer1.hasRemaining()) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            throw new NonfatalBuildException("Failed to read " + file, e, getLocation());
+        } finally {
+            BufferPool.BYTES.release(bytes2);
+            BufferPool.BYTES.release(bytes1);
+        }
+    }
+
+    /**
+     * Reads bytes from a channel until the buffer is full or the end of the channel is reached.
+     */
+    private static void fill(FileChannel in, ByteBuffer buffer) throws IOException {
+        int length;
+        do {
+            length = in.read(buffer);
+        } while ((length > -1) && buffer.hasRemaining());
     }
 
     private boolean hasIdenticalContent(File file, byte[] content) {
-        byte[] bytes = Pool.BYTES.get();
+        byte[] bytes = BufferPool.BYTES.get(4096);
         try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
             ByteBuffer buffer = ByteBuffer.wrap(bytes);
             int length;
@@ -477,24 +1209,65 @@ public final class Output extends Sink {
         } catch (IOException e) {
             throw new NonfatalBuildException("Failed to read " + file, e, getLocation());
         } finally {
-            Pool.BYTES.release(bytes);
+            BufferPool.BYTES.release(bytes);
         }
     }
 
     @Override
     Sink abortOne(Result result) {
-        placeBackBuffer(
-            (ExposingByteArrayOutputStream) ((StreamResult) result).getOutputStream());
+        archiveIncomplete_ = true;
+        release((OutputStreamResult) result);
         return null;
     }
 
-    private void placeBackBuffer(ExposingByteArrayOutputStream buffer) {
-        buffer.reset();
-        BUFFER.release(buffer);
+    private void release(OutputStreamResult result) {
+        Path temporary = result.getTemporary();
+        if (temporary != null) {
+            try {
+                result.getOutputStream().close();
+            } catch (IOException e) {
+                // Ignored because the temporary file is to be deleted anyway
+            }
+            deleteTemporary(temporary);
+        } else {
+            ((PooledByteArrayOutputStream) result.getOutputStream()).recycle();
+        }
     }
 
     @Override
     void finishBundle() {
+        if (archive_ != null) {
+            finishArchive();
+            return;
+        }
+        List<String> unflushed = new ArrayList<>();
+        if (writer_ != null) {
+            awaitWriter();
+            writer_ = null;
+            // The files written asynchronously are made durable at once
+            for (Path written : writtenInBundle_) {
+                try {
+                    force(written);
+                } catch (IOException e) {
+                    unflushed.add(written.toString());
+                    logger_.log(this, "Failed to flush " + written, Level.WARN);
+                    logger_.log(this, e, "  Cause: ", Level.INFO, Level.VERBOSE);
+                }
+            }
+            writtenInBundle_ = null;
+        }
+        if (index_ != null) {
+            if (!dryRun_) {
+                try {
+                    index_.store();
+                } catch (IOException e) {
+                    logger_.log(this,
+                        "Failed to store the digest index " + timidIndex_, Level.WARN);
+                    logger_.log(this, e, "  Cause: ", Level.INFO, Level.VERBOSE);
+                }
+            }
+            index_ = null;
+        }
         switch (countInBundle_.get()) {
         case 0:
             logger_.log(this, "No output files created", Level.INFO);
@@ -506,26 +1279,109 @@ public final class Output extends Sink {
             logger_.log(this, countInBundle_ + " output files created", Level.INFO);
             break;
         }
+        if (!failedInBundle_.isEmpty()) {
+            List<String> failed = new ArrayList<>(failedInBundle_);
+            throw new NonfatalBuildException(((failed.size() == 1) ?
+                    "Failed to write the output of 1 source: " :
+                    ("Failed to write outputs of " + failed.size() + " sources: "))
+                + String.join(", ", failed), getLocation());
+        }
+        if (!unflushed.isEmpty()) {
+            throw new NonfatalBuildException(
+                "Failed to flush " + String.join(", ", unflushed), getLocation());
+        }
+    }
+
+    private void finishArchive() {
+        rebuildsArchive_ = true;
+        if (archiveWriter_ == null) {
+            return;
+        }
+        try {
+            if (archiveIncomplete_) {
+                archiveWriter_.abort();
+                logger_.log(this, "The archive " + archive_
+                    + " is left untouched because some outputs failed to be archived",
+                    Level.WARN);
+            } else {
+                archiveWriter_.finish();
+                long count = archiveWriter_.entryCount();
+                logger_.log(this, ((count == 1) ? "1 entry" : (count + " entries"))
+                    + " archived into " + archive_, Level.INFO);
+            }
+        } catch (IOException e) {
+            throw new BuildException("Failed to create " + archive_, e, getLocation());
+        } finally {
+            archiveWriter_ = null;
+        }
+    }
+
+    /**
+     * Waits for all queued documents to be written.
+     */
+    private void awaitWriter() {
+        writer_.shutdown();
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                if (writer_.awaitTermination(1, TimeUnit.MINUTES)) {
+                    break;
+                }
+                logger_.log(this, "Waiting for output files to be written", Level.VERBOSE);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /** An extension of StreamResult which has corresponding path information. */
     private static class OutputStreamResult extends StreamResult {
+        String origSrcFileName_;
         Set<Path> destinations_;
+        Path temporary_;
+        MessageDigest digest_ = null;
 
-        public OutputStreamResult(OutputStream outputStream, Set<Path> destinations) {
+        public OutputStreamResult(OutputStream outputStream, String origSrcFileName,
+                Set<Path> destinations, Path temporary) {
             super(outputStream);
+            origSrcFileName_ = origSrcFileName;
             destinations_ = destinations;
+            temporary_ = temporary;
+        }
+
+        String getOrigSrcFileName() {
+            return origSrcFileName_;
+        }
+
+        /**
+         * Returns the message digest which is updated while the output stream is written.
+         *
+         * @return
+         *      the message digest, or {@code null} if no digest is taken on the fly.
+         */
+        MessageDigest getDigest() {
+            return digest_;
+        }
+
+        void setDigest(MessageDigest digest) {
+            digest_ = digest;
         }
 
         Set<Path> getDestinations() {
             return destinations_;
         }
-    }
 
-    /** An extension of ByteArrayOutputStream which exposes its internal byte buffer. */
-    private static class ExposingByteArrayOutputStream extends ByteArrayOutputStream {
-        public byte[] buffer() {
-            return buf;
+        /**
+         * Returns the temporary file into which the output stream writes.
+         *
+         * @return
+         *      the temporary file, or {@code null} if the output stream is an in-memory buffer.
+         */
+        Path getTemporary() {
+            return temporary_;
         }
     }
 }
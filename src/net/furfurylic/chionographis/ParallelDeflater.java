@@ -0,0 +1,100 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses byte arrays into raw DEFLATE streams, splitting them into blocks which are
+ * compressed in parallel.
+ *
+ * <p>Each block but the last one is terminated by a sync flush, so the compressed blocks can
+ * be simply concatenated. Each block is compressed with the preceding 32 KiB of the input as
+ * its preset dictionary, so the compression ratio is almost as good as sequential compression.
+ * The output depends only on the input, not on the number of the threads.</p>
+ */
+final class ParallelDeflater {
+
+    private static final int BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private ParallelDeflater() {
+    }
+
+    /**
+     * Compresses a byte array into a raw DEFLATE stream.
+     *
+     * @param input
+     *      an array which contains the bytes to be compressed.
+     * @param length
+     *      the number of the bytes to be compressed from the head of {@code input}.
+     * @param out
+     *      an output stream into which the compressed bytes are written.
+     *
+     * @throws IOException
+     *      if an I/O error occurs in writing into {@code out}.
+     */
+    public static void deflate(byte[] input, int length, OutputStream out) throws IOException {
+        int blockCount = Math.max(1, (length + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        IntStream indices = IntStream.range(0, blockCount);
+        if (blockCount > 1) {
+            indices = indices.parallel();
+        }
+        PooledByteArrayOutputStream[] blocks =
+            indices.mapToObj(i -> deflateBlock(input, length, i, (i == blockCount - 1)))
+                   .toArray(PooledByteArrayOutputStream[]::new);
+        try {
+            for (PooledByteArrayOutputStream block : blocks) {
+                out.write(block.buffer(), 0, block.size());
+            }
+        } finally {
+            for (PooledByteArrayOutputStream block : blocks) {
+                block.recycle();
+            }
+        }
+    }
+
+    private static PooledByteArrayOutputStream deflateBlock(
+            byte[] input, int length, int index, boolean isLast) {
+        int start = index * BLOCK_SIZE;
+        int end = Math.min(length, start + BLOCK_SIZE);
+        PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(BufferPool.BYTES);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        byte[] buffer = BufferPool.BYTES.get(8192);
+        try {
+            if (start > 0) {
+                // Deflater.setDictionary(byte[], int, int) of some JDKs ignores the offset
+                // (JDK-8252739), so the dictionary is given as a copy of its own
+                deflater.setDictionary(
+                    Arrays.copyOfRange(input, Math.max(0, start - DICTIONARY_SIZE), start));
+            }
+            deflater.setInput(input, start, end - start);
+            if (isLast) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int written;
+                do {
+                    written = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, written);
+                } while (written == buffer.length);
+            }
+        } finally {
+            BufferPool.BYTES.release(buffer);
+            deflater.end();
+        }
+        return out;
+    }
+}
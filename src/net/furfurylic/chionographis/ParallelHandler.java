@@ -0,0 +1,602 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.LocatorImpl;
+
+/**
+ * A SAX handler which dispatches the events it receives to multiple branches in parallel.
+ *
+ * <p>The events are batched into chunks, and each chunk is replayed to each branch on a thread
+ * dedicated to the branch. The number of the chunks in flight is bounded, so the producer of
+ * the events waits for the slowest branch when it gets too far ahead.</p>
+ *
+ * <p>The threads for the branches are shared by all objects of this class and their number is
+ * bounded. An object which cannot have threads for all of its branches replays each chunk to
+ * the branches one by one on the thread of the producer instead.</p>
+ *
+ * <p>An exception thrown by a branch is rethrown to the producer by the next event (at the
+ * latest, by {@link #endDocument()}). After the producer has received {@link #endDocument()}
+ * without exceptions, all branches have received all events.
+ * If the producer gives up sending events halfway, {@link #cancel()} must be invoked.</p>
+ */
+final class ParallelHandler implements ContentHandler, LexicalHandler {
+
+    /** The maximum number of the chunks in flight per one object. */
+    private static final int MAX_CHUNKS = 4;
+
+    private static final Pool<Chunk> CHUNKS = new Pool<>(Chunk::new);
+
+    /** The maximum number of the threads for the branches. */
+    private static final int MAX_BRANCHES =
+        Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * The permits for the threads for the branches. An object acquires the permits for all of
+     * its branches at once, or none of them, so that no branch waits for a thread which is
+     * kept by another object.
+     */
+    private static final Semaphore BRANCH_PERMITS = new Semaphore(MAX_BRANCHES);
+
+    private static final ExecutorService BRANCHES = newBranchExecutor();
+
+    private static ExecutorService newBranchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_BRANCHES, MAX_BRANCHES,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                Thread thread = new Thread(r, "chionographis-branch");
+                thread.setDaemon(true);
+                return thread;
+            });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /** A sentinel chunk which tells the end of the events. */
+    private static final Chunk END = new Chunk();
+
+    private final ContentHandler[] contentHandlers_;
+    private final LexicalHandler[] lexicalHandlers_;
+
+    /**
+     * The locators which the branches receive, each of which is updated by the thread of the
+     * branch to the snapshot of the producer's locator taken for each chunk.
+     */
+    private final LocatorImpl[] locators_;
+
+    /** The producer's locator, which can be {@code null}. */
+    private Locator locator_ = null;
+
+    private final Semaphore inFlight_ = new Semaphore(MAX_CHUNKS);
+    private final AtomicReference<Throwable> failure_ = new AtomicReference<>();
+    private volatile boolean cancelled_ = false;
+
+    private List<BlockingQueue<Chunk>> queues_ = null;
+    private List<Future<?>> futures_ = null;
+    private boolean sequential_ = false;
+    private Chunk current_ = null;
+
+    /**
+     * Sole constructor.
+     *
+     * @param contentHandlers
+     *      the content handlers of the branches, which shall not be {@code null}.
+     * @param lexicalHandlers
+     *      the lexical handlers of the branches, whose size shall be the same as
+     *      {@code contentHandlers}; elements can be {@code null}.
+     */
+    public ParallelHandler(List<ContentHandler> contentHandlers,
+            List<LexicalHandler> lexicalHandlers) {
+        assert contentHandlers.size() == lexicalHandlers.size();
+        contentHandlers_ = contentHandlers.toArray(new ContentHandler[contentHandlers.size()]);
+        lexicalHandlers_ = lexicalHandlers.toArray(new LexicalHandler[lexicalHandlers.size()]);
+        locators_ = new LocatorImpl[contentHandlers_.length];
+        for (int i = 0; i < locators_.length; ++i) {
+            locators_[i] = new LocatorImpl();
+        }
+    }
+
+    /**
+     * Stops all branches and waits for them to stop.
+     *
+     * <p>After this method returns, no branches receive events any more.
+     * This method has no effect if the branches have already received all events.</p>
+     */
+    public void cancel() {
+        cancelled_ = true;
+        if (queues_ != null) {
+            stopBranches();
+        }
+        if (current_ != null) {
+            releaseChunk(current_);
+            current_ = null;
+        }
+    }
+
+    private Chunk chunk() throws SAXException {
+        if (current_ == null) {
+            if (queues_ == null) {
+                startBranches();
+            }
+            try {
+                inFlight_.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SAXException(e);
+            }
+            current_ = CHUNKS.get();
+        }
+        return current_;
+    }
+
+    private void startBranches() {
+        queues_ = new ArrayList<>(contentHandlers_.length);
+        futures_ = new ArrayList<>(contentHandlers_.length);
+        if (!BRANCH_PERMITS.tryAcquire(contentHandlers_.length)) {
+            sequential_ = true;
+            return;
+        }
+        for (int i = 0; i < contentHandlers_.length; ++i) {
+            BlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+            int branch = i;
+            queues_.add(queue);
+            futures_.add(BRANCHES.submit(() -> drain(queue, branch)));
+        }
+    }
+
+    /**
+     * Sends the current chunk to the branches if it is full.
+     */
+    private void published() throws SAXException {
+        if (current_.isFull()) {
+            publish();
+        }
+        rethrowFailure();
+    }
+
+    private void publish() throws SAXException {
+        Chunk chunk = current_;
+        current_ = null;
+        if (locator_ != null) {
+            chunk.locate(locator_);
+        }
+        if (sequential_) {
+            try {
+                for (int i = 0; i < contentHandlers_.length; ++i) {
+                    chunk.replay(contentHandlers_[i], lexicalHandlers_[i], locators_[i],
+                        () -> false);
+                }
+            } finally {
+                releaseChunk(chunk);
+            }
+        } else {
+            chunk.pending_.set(queues_.size());
+            queues_.forEach(q -> q.offer(chunk));
+        }
+    }
+
+    /**
+     * Tells the end of the events to the branches and waits for them to stop.
+     */
+    private void stopBranches() {
+        queues_.forEach(q -> q.offer(END));
+        awaitBranches();
+        if (!sequential_) {
+            BRANCH_PERMITS.release(contentHandlers_.length);
+        }
+        queues_ = null;
+    }
+
+    private void rethrowFailure() throws SAXException {
+        Throwable failure = failure_.get();
+        if (failure != null) {
+            if (failure instanceof SAXException) {
+                throw (SAXException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else {
+                throw new SAXException((Exception) failure);
+            }
+        }
+    }
+
+    private void awaitBranches() {
+        boolean interrupted = false;
+        for (Future<?> future : futures_) {
+            for (;;) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    failure_.compareAndSet(null, e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Replays all chunks in a queue to a branch until the end of the events.
+     * This method is run by the thread dedicated to the branch.
+     */
+    private void drain(BlockingQueue<Chunk> queue, int branch) {
+        for (;;) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                failure_.compareAndSet(null, e);
+                return;
+            }
+            if (chunk == END) {
+                return;
+            }
+            try {
+                if (failure_.get() == null) {
+                    chunk.replay(contentHandlers_[branch], lexicalHandlers_[branch],
+                        locators_[branch], () -> cancelled_);
+                }
+            } catch (Throwable e) {
+                failure_.compareAndSet(null, e);
+            } finally {
+                if (chunk.pending_.decrementAndGet() == 0) {
+                    releaseChunk(chunk);
+                }
+            }
+        }
+    }
+
+    private void releaseChunk(Chunk chunk) {
+        chunk.clear();
+        CHUNKS.release(chunk);
+        inFlight_.release();
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        // Branches run on other threads, so they receive locators which are updated to
+        // the snapshots of this locator taken for each chunk.
+        locator_ = locator;
+        try {
+            chunk().add(Chunk.LOCATOR);
+        } catch (SAXException e) {
+            // Branches have not started yet, so this shall not happen.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        chunk().add(Chunk.START_DOCUMENT);
+        published();
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        chunk().add(Chunk.END_DOCUMENT);
+        try {
+            publish();
+        } finally {
+            stopBranches();
+        }
+        rethrowFailure();
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        chunk().add(Chunk.START_PREFIX_MAPPING, prefix, uri, null);
+        published();
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        chunk().add(Chunk.END_PREFIX_MAPPING, prefix, null, null);
+        published();
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts)
+            throws SAXException {
+        chunk().add(Chunk.START_ELEMENT, uri, localName, qName).attributes(atts);
+        published();
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        chunk().add(Chunk.END_ELEMENT, uri, localName, qName);
+        published();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        chunk().add(Chunk.CHARACTERS, ch, start, length);
+        published();
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        chunk().add(Chunk.IGNORABLE_WHITESPACE, ch, start, length);
+        published();
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        chunk().add(Chunk.PROCESSING_INSTRUCTION, target, data, null);
+        published();
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+        chunk().add(Chunk.SKIPPED_ENTITY, name, null, null);
+        published();
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) throws SAXException {
+        chunk().add(Chunk.START_DTD, name, publicId, systemId);
+        published();
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        chunk().add(Chunk.END_DTD);
+        published();
+    }
+
+    @Override
+    public void startEntity(String name) throws SAXException {
+        chunk().add(Chunk.START_ENTITY, name, null, null);
+        published();
+    }
+
+    @Override
+    public void endEntity(String name) throws SAXException {
+        chunk().add(Chunk.END_ENTITY, name, null, null);
+        published();
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        chunk().add(Chunk.START_CDATA);
+        published();
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        chunk().add(Chunk.END_CDATA);
+        published();
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        chunk().add(Chunk.COMMENT, ch, start, length);
+        published();
+    }
+
+    /** A reusable batch of SAX events. */
+    private static final class Chunk {
+
+        static final byte LOCATOR = 0;
+        static final byte START_DOCUMENT = 1;
+        static final byte END_DOCUMENT = 2;
+        static final byte START_PREFIX_MAPPING = 3;
+        static final byte END_PREFIX_MAPPING = 4;
+        static final byte START_ELEMENT = 5;
+        static final byte END_ELEMENT = 6;
+        static final byte CHARACTERS = 7;
+        static final byte IGNORABLE_WHITESPACE = 8;
+        static final byte PROCESSING_INSTRUCTION = 9;
+        static final byte SKIPPED_ENTITY = 10;
+        static final byte START_DTD = 11;
+        static final byte END_DTD = 12;
+        static final byte START_ENTITY = 13;
+        static final byte END_ENTITY = 14;
+        static final byte START_CDATA = 15;
+        static final byte END_CDATA = 16;
+        static final byte COMMENT = 17;
+
+        /** The maximum number of events in one chunk. */
+        private static final int CAPACITY = 1024;
+
+        /** The number of characters above which a chunk is considered to be full. */
+        private static final int CHARS_THRESHOLD = 16384;
+
+        private final byte[] types_ = new byte[CAPACITY];
+        private final String[] strings_ = new String[CAPACITY * 3];
+        private final int[] ranges_ = new int[CAPACITY * 2];
+        private final AttributesImpl[] attributes_ = new AttributesImpl[CAPACITY];
+        private char[] chars_ = new char[CHARS_THRESHOLD];
+        private int size_ = 0;
+        private int charCount_ = 0;
+
+        /** The snapshot of the producer's locator at the last event of this chunk. */
+        private final LocatorImpl locator_ = new LocatorImpl();
+        private boolean located_ = false;
+
+        final AtomicInteger pending_ = new AtomicInteger();
+
+        boolean isFull() {
+            return (size_ == CAPACITY) || (charCount_ >= CHARS_THRESHOLD);
+        }
+
+        Chunk add(byte type) {
+            types_[size_] = type;
+            ++size_;
+            return this;
+        }
+
+        Chunk add(byte type, String s0, String s1, String s2) {
+            strings_[size_ * 3] = s0;
+            strings_[size_ * 3 + 1] = s1;
+            strings_[size_ * 3 + 2] = s2;
+            return add(type);
+        }
+
+        Chunk add(byte type, char[] ch, int start, int length) {
+            if (charCount_ + length > chars_.length) {
+                chars_ = Arrays.copyOf(chars_, Math.max(chars_.length * 2, charCount_ + length));
+            }
+            System.arraycopy(ch, start, chars_, charCount_, length);
+            ranges_[size_ * 2] = charCount_;
+            ranges_[size_ * 2 + 1] = length;
+            charCount_ += length;
+            return add(type);
+        }
+
+        void locate(Locator locator) {
+            copy(locator, locator_);
+            located_ = true;
+        }
+
+        private static void copy(Locator from, LocatorImpl to) {
+            to.setPublicId(from.getPublicId());
+            to.setSystemId(from.getSystemId());
+            to.setLineNumber(from.getLineNumber());
+            to.setColumnNumber(from.getColumnNumber());
+        }
+
+        /** Attaches attributes to the last event. */
+        void attributes(Attributes atts) {
+            int i = size_ - 1;
+            if (attributes_[i] == null) {
+                attributes_[i] = new AttributesImpl(atts);
+            } else {
+                attributes_[i].setAttributes(atts);
+            }
+        }
+
+        void clear() {
+            Arrays.fill(strings_, 0, size_ * 3, null);
+            for (int i = 0; i < size_; ++i) {
+                if (attributes_[i] != null) {
+                    attributes_[i].clear();
+                }
+            }
+            if (chars_.length > CHARS_THRESHOLD * 4) {
+                chars_ = new char[CHARS_THRESHOLD];
+            }
+            size_ = 0;
+            charCount_ = 0;
+            located_ = false;
+        }
+
+        void replay(ContentHandler content, LexicalHandler lexical, LocatorImpl locator,
+                BooleanSupplier isCancelled) throws SAXException {
+            if (located_) {
+                copy(locator_, locator);
+            }
+            for (int i = 0; i < size_; ++i) {
+                if (isCancelled.getAsBoolean()) {
+                    return;
+                }
+                String s0 = strings_[i * 3];
+                String s1 = strings_[i * 3 + 1];
+                String s2 = strings_[i * 3 + 2];
+                int start = ranges_[i * 2];
+                int length = ranges_[i * 2 + 1];
+                switch (types_[i]) {
+                case LOCATOR:
+                    content.setDocumentLocator(locator);
+                    break;
+                case START_DOCUMENT:
+                    content.startDocument();
+                    break;
+                case END_DOCUMENT:
+                    content.endDocument();
+                    break;
+                case START_PREFIX_MAPPING:
+                    content.startPrefixMapping(s0, s1);
+                    break;
+                case END_PREFIX_MAPPING:
+                    content.endPrefixMapping(s0);
+                    break;
+                case START_ELEMENT:
+                    content.startElement(s0, s1, s2, attributes_[i]);
+                    break;
+                case END_ELEMENT:
+                    content.endElement(s0, s1, s2);
+                    break;
+                case CHARACTERS:
+                    content.characters(chars_, start, length);
+                    break;
+                case IGNORABLE_WHITESPACE:
+                    content.ignorableWhitespace(chars_, start, length);
+                    break;
+                case PROCESSING_INSTRUCTION:
+                    content.processingInstruction(s0, s1);
+                    break;
+                case SKIPPED_ENTITY:
+                    content.skippedEntity(s0);
+                    break;
+                default:
+                    if (lexical != null) {
+                        replayLexical(lexical, i, s0, s1, s2, start, length);
+                    }
+                    break;
+                }
+            }
+        }
+
+        private void replayLexical(LexicalHandler lexical, int i,
+                String s0, String s1, String s2, int start, int length) throws SAXException {
+            switch (types_[i]) {
+            case START_DTD:
+                lexical.startDTD(s0, s1, s2);
+                break;
+            case END_DTD:
+                lexical.endDTD();
+                break;
+            case START_ENTITY:
+                lexical.startEntity(s0);
+                break;
+            case END_ENTITY:
+                lexical.endEntity(s0);
+                break;
+            case START_CDATA:
+                lexical.startCDATA();
+                break;
+            case END_CDATA:
+                lexical.endCDATA();
+                break;
+            case COMMENT:
+                lexical.comment(chars_, start, length);
+                break;
+            default:
+                assert false : types_[i];
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.xml.sax.InputSource;
+
+/**
+ * A compiled XPath expression which can be evaluated by multiple threads simultaneously.
+ *
+ * <p>Because {@code XPathExpression} objects are not thread safe, an object of this class
+ * compiles the expression once for each thread which evaluates it, and each thread evaluates
+ * its own compiled expression without any locks.</p>
+ */
+final class PerThreadXPathExpression implements XPathExpression {
+
+    private final String expression_;
+    private final ThreadLocal<XPathExpression> compiled_;
+
+    /**
+     * Compiles an XPath expression.
+     *
+     * @param expression
+     *      an XPath expression.
+     * @param namespaceContext
+     *      a namespace context which resolves the namespace prefixes in the expression,
+     *      which shall be thread safe.
+     *
+     * @throws XPathExpressionException
+     *      if the expression cannot be compiled.
+     */
+    public PerThreadXPathExpression(String expression, NamespaceContext namespaceContext)
+            throws XPathExpressionException {
+        expression_ = expression;
+        XPathExpression first = compile(expression, namespaceContext);
+        compiled_ = ThreadLocal.withInitial(() -> {
+            try {
+                return compile(expression, namespaceContext);
+            } catch (XPathExpressionException e) {
+                // Must not occur because it has been compiled successfully once
+                throw new IllegalStateException(e);
+            }
+        });
+        compiled_.set(first);
+    }
+
+    private static XPathExpression compile(String expression, NamespaceContext namespaceContext)
+            throws XPathExpressionException {
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(namespaceContext);
+        return xpath.compile(expression);
+    }
+
+    @Override
+    public Object evaluate(Object item, QName returnType) throws XPathExpressionException {
+        return compiled_.get().evaluate(item, returnType);
+    }
+
+    @Override
+    public String evaluate(Object item) throws XPathExpressionException {
+        return compiled_.get().evaluate(item);
+    }
+
+    @Override
+    public Object evaluate(InputSource source, QName returnType)
+            throws XPathExpressionException {
+        return compiled_.get().evaluate(source, returnType);
+    }
+
+    @Override
+    public String evaluate(InputSource source) throws XPathExpressionException {
+        return compiled_.get().evaluate(source);
+    }
+
+    @Override
+    public String toString() {
+        return expression_;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A description of how documents flow through a tree of {@linkplain Sink sinks},
+ * which is laid out by the sinks themselves after their initialization.
+ *
+ * <p>Objects of this class are immutable.</p>
+ */
+final class Plan {
+
+    /** The forms in which documents are handed over to sinks. */
+    enum Form {
+        /** SAX events, which are received by a TrAX {@code SAXResult}. */
+        SAX,
+        /** A DOM tree, which is received by a TrAX {@code DOMResult}. */
+        DOM,
+        /** Serialized bytes, which are received by a TrAX {@code StreamResult}. */
+        BYTES
+    }
+
+    private final String description_;
+    private final Form form_;
+    private final List<Plan> sinks_;
+
+    /**
+     * Sole constructor.
+     *
+     * @param description
+     *      a short description of the sink, which shall not be {@code null}.
+     * @param form
+     *      the form in which the sink receives documents, which shall not be {@code null}.
+     * @param sinks
+     *      the plans of the sinks to which the sink passes documents,
+     *      which shall not be {@code null}.
+     */
+    public Plan(String description, Form form, List<Plan> sinks) {
+        description_ = description;
+        form_ = form;
+        sinks_ = Collections.unmodifiableList(new ArrayList<>(sinks));
+    }
+
+    /**
+     * Creates a plan of a sink which passes documents to no other sinks.
+     *
+     * @param description
+     *      a short description of the sink, which shall not be {@code null}.
+     * @param form
+     *      the form in which the sink receives documents, which shall not be {@code null}.
+     *
+     * @return
+     *      a new plan, which is not {@code null}.
+     */
+    public static Plan leaf(String description, Form form) {
+        return new Plan(description, form, Collections.emptyList());
+    }
+
+    /**
+     * Returns the form in which the sink receives documents.
+     *
+     * @return
+     *      the form, which is not {@code null}.
+     */
+    public Form form() {
+        return form_;
+    }
+
+    /**
+     * Returns the plans of the sinks to which the sink passes documents.
+     *
+     * @return
+     *      an unmodifiable list of plans, which is not {@code null}.
+     */
+    public List<Plan> sinks() {
+        return sinks_;
+    }
+
+    /**
+     * Renders this plan into human-readable lines,
+     * where each sink is indented deeper than its driver.
+     *
+     * @return
+     *      the rendered lines, which is not {@code null}.
+     */
+    public List<String> explain() {
+        List<String> lines = new ArrayList<>();
+        explain("  ", lines);
+        return lines;
+    }
+
+    private void explain(String indent, List<String> lines) {
+        lines.add(indent + description_ + " <- " + form_);
+        for (Plan sink : sinks_) {
+            sink.explain(indent + "  ", lines);
+        }
+    }
+}
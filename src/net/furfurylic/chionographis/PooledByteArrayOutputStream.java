@@ -0,0 +1,103 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.io.OutputStream;
+
+/**
+ * An output stream which writes into a byte array taken out of a {@link BufferPool}.
+ *
+ * <p>When the array gets full, a longer array is taken out of the pool and the shorter one is
+ * returned to the pool. The array is exposed by {@link #buffer()} and returned to the pool by
+ * {@link #recycle()}.</p>
+ *
+ * <p>Objects of this class are not thread safe.</p>
+ */
+final class PooledByteArrayOutputStream extends OutputStream {
+
+    private static final int INITIAL_LENGTH = 8192;
+
+    /** The maximum length of arrays which can be allocated safely. */
+    private static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final BufferPool pool_;
+    private byte[] buffer_;
+    private int size_ = 0;
+
+    /**
+     * Sole constructor.
+     *
+     * @param pool
+     *      a pool from which arrays are taken out, which shall not be {@code null}.
+     */
+    public PooledByteArrayOutputStream(BufferPool pool) {
+        pool_ = pool;
+        buffer_ = pool.get(INITIAL_LENGTH);
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(size_ + 1);
+        buffer_[size_] = (byte) b;
+        ++size_;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        if ((off < 0) || (len < 0) || (len > b.length - off)) {
+            throw new IndexOutOfBoundsException();
+        }
+        ensureCapacity(size_ + len);
+        System.arraycopy(b, off, buffer_, size_, len);
+        size_ += len;
+    }
+
+    private void ensureCapacity(int minLength) {
+        if (minLength < 0) {
+            throw new OutOfMemoryError("Too large content");
+        } else if (minLength > buffer_.length) {
+            int length = (int) Math.min(Math.max(buffer_.length * 2L, minLength), MAX_LENGTH);
+            byte[] newBuffer = pool_.get(length);
+            System.arraycopy(buffer_, 0, newBuffer, 0, size_);
+            pool_.release(buffer_);
+            buffer_ = newBuffer;
+        }
+    }
+
+    /**
+     * Returns the internal byte array, whose first {@link #size()} bytes are the written content.
+     *
+     * @return
+     *      the internal byte array.
+     */
+    public byte[] buffer() {
+        return buffer_;
+    }
+
+    /**
+     * Returns the number of the written bytes.
+     *
+     * @return
+     *      the number of the written bytes.
+     */
+    public int size() {
+        return size_;
+    }
+
+    /**
+     * Returns the internal byte array to the pool.
+     * This object shall not be used after this call.
+     */
+    public void recycle() {
+        if (buffer_ != null) {
+            pool_.release(buffer_);
+            buffer_ = null;
+            size_ = 0;
+        }
+    }
+}
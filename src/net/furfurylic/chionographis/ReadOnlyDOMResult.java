@@ -0,0 +1,18 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+/**
+ * A marker interface for TrAX {@code DOMResult}s whose owners only read the nodes set to them,
+ * that is, never modify nor move them.
+ *
+ * <p>Drivers can set one DOM node to multiple results of this kind instead of giving each of
+ * them a private copy, as long as those results are not handled simultaneously.</p>
+ */
+interface ReadOnlyDOMResult {
+}
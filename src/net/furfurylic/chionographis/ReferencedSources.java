@@ -13,6 +13,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.LongFunction;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -94,33 +95,61 @@ interface ReferencedSources {
      */
     default LongFunction<Resource> close(File file) {
         long l = file.lastModified();
+        ReferencedSources bare = this;
+        LongFunction<Resource> references = lastModified -> {
+            Set<File> s = new HashSet<>();
+            ReferencedSources checking =
+                (file2, lastModified2, reentry) -> {
+                    File canon;
+                    try {
+                        canon = file2.getCanonicalFile();
+                    } catch (IOException e) {
+                        // If canonicalization fails, the source should be considered as
+                        // "unknown", or "very-new".
+                        return new FileResource(file2);
+                    }
+                    if (s.contains(canon)) {
+                        // Circular dependency is simply ignored
+                        return null;
+                    }
+                    s.add(canon);
+                    Resource r = bare.findAnyNewerSource(file2, lastModified2, reentry);
+                    s.remove(canon);
+                    return r;
+                };
+            return checking.findAnyNewerSource(file, lastModified, checking);
+        };
         return lastModified -> {
             if ((l == 0) || (l > lastModified)) {
-                return new FileResource(file);
+                return new Origin(file, () -> references.apply(lastModified));
             } else {
-                ReferencedSources bare = this;
-                Set<File> s = new HashSet<>();
-                ReferencedSources checking =
-                    (file2, lastModified2, reentry) -> {
-                        File canon;
-                        try {
-                            canon = file2.getCanonicalFile();
-                        } catch (IOException e) {
-                            // If canonicalization fails, the source should be considered as
-                            // "unknown", or "very-new".
-                            return new FileResource(file2);
-                        }
-                        if (s.contains(canon)) {
-                            // Circular dependency is simply ignored
-                            return null;
-                        }
-                        s.add(canon);
-                        Resource r = bare.findAnyNewerSource(file2, lastModified2, reentry);
-                        s.remove(canon);
-                        return r;
-                    };
-                return checking.findAnyNewerSource(file, lastModified, checking);
+                return references.apply(lastModified);
             }
         };
     }
+
+    /**
+     * A {@link Resource} returned by the functions made by {@link #close(File)} when the file
+     * from which the search starts is itself newer. The referenced files are not searched
+     * unless asked.
+     */
+    static final class Origin extends FileResource {
+        private final Supplier<Resource> references_;
+
+        Origin(File file, Supplier<Resource> references) {
+            super(file);
+            references_ = references;
+        }
+
+        /**
+         * Searches the files referenced by the file, regardless of the file itself.
+         *
+         * @return
+         *      a {@link Resource} which possively points a newer referenced file,
+         *      or {@code null} if there are none.
+         */
+        Resource findAnyNewerReference() {
+            return references_.get();
+        }
+    }
 }
@@ -81,6 +81,19 @@ public abstract class Sink extends ProjectComponent {
         return Collections.emptyList();
     }
 
+    /**
+     * Lays out how this object receives documents and passes them to its sinks.
+     *
+     * <p>The decisions described by the returned plan are made up-front by
+     * {@link #init(File, NamespaceContext, XMLHelper, Logger, boolean, boolean)}, so this method
+     * can be invoked only after the invocation of it. The TrAX {@code Result} objects returned by
+     * {@link #startOne(int, String, LongFunction, List)} are in the form told by the plan.</p>
+     *
+     * @return
+     *      the plan of this object, which shall not be {@code null}.
+     */
+    abstract Plan plan();
+
     /**
      * Picks sources to include in the processing from candidate sources.
      *
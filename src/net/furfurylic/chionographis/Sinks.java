@@ -8,7 +8,11 @@
 package net.furfurylic.chionographis;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +31,7 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPathExpression;
 
 import org.apache.tools.ant.BuildException;
@@ -49,15 +54,38 @@ final class Sinks extends Sink {
 
     private XMLHelper xmlHelper_;
     private Location location_;
+    private boolean parallelDispatch_ = false;
     private Assemblage<Sink> sinks_ = new Assemblage<>();
 
     /**
-     * {@code includes_[i][j]} tells whether {@code sinks_.get(i)} wants the source indexed by
-     * {@code j} to be processed.
+     * The indices of the elements of {@code sinks_} which want at least one source
+     * to be processed, in ascending order.
      *
-     * <p>This field is maintained by {@link #preexamineBundle(String[], long[])} method.
+     * <p>This field is initialized by {@link #init(File, NamespaceContext, XMLHelper, Logger,
+     * boolean, boolean)} to contain all indices, and is narrowed by
+     * {@link #preexamineBundle(String[], LongFunction[])} method.</p>
      */
-    private boolean[][] includes_;
+    private int[] activeIndices_;
+
+    /**
+     * The concatenation of the referents of the elements of {@code sinks_},
+     * which is decided by {@link #init(File, NamespaceContext, XMLHelper, Logger, boolean,
+     * boolean)}.
+     */
+    private List<XPathExpression> referents_;
+
+    /**
+     * {@code referentOffsets_[j]} is the index in {@code referents_} of the first referent of
+     * {@code sinks_.get(j)}, and {@code referentOffsets_[sinks_.size()]} is the size of
+     * {@code referents_}.
+     */
+    private int[] referentOffsets_;
+
+    /**
+     * The plan of this object, which is laid out by {@link #init(File, NamespaceContext,
+     * XMLHelper, Logger, boolean, boolean)}.
+     */
+    private Plan plan_;
 
     /**
      * A map which maps a TrAX Result object returned {@link #startOne(int, String, long, List)}
@@ -117,6 +145,18 @@ final class Sinks extends Sink {
         return sink;
     }
 
+    /**
+     * Adds a {@link Validate} filter into this composite.
+     *
+     * @return
+     *      a {@link Validate} filter object.
+     */
+    public Validate createValidate() {
+        Validate sink = new Validate();
+        sinks_.add(sink);
+        return sink;
+    }
+
     /**
      * Adds an {@link Output} sink into this composite.
      *
@@ -133,35 +173,118 @@ final class Sinks extends Sink {
         return sinks_.isEmpty();
     }
 
+    /**
+     * Sets whether SAX events of one document are passed to the sinks in parallel,
+     * and whether the sinks which receive copies of one DOM tree are finished concurrently.
+     * Defaulted to {@code false}.
+     *
+     * @param parallelDispatch
+     *      {@code true} if the events are passed in parallel; {@code false} otherwise.
+     */
+    public void setParallelDispatch(boolean parallelDispatch) {
+        parallelDispatch_ = parallelDispatch;
+    }
+
     @Override
     void init(File baseDir, NamespaceContext namespaceContext, XMLHelper xmlHelper,
             Logger logger, boolean force, boolean dryRun) {
         xmlHelper_ = xmlHelper;
         sinks().stream()
                .forEach(s -> s.init(baseDir, namespaceContext, xmlHelper, logger, force, dryRun));
+
+        // Referents of the sinks are fixed after their initialization.
+        referents_ = new ArrayList<>();
+        referentOffsets_ = new int[sinks().size() + 1];
+        for (int j = 0; j < sinks().size(); ++j) {
+            referentOffsets_[j] = referents_.size();
+            referents_.addAll(sinks().get(j).referents());
+        }
+        referentOffsets_[sinks().size()] = referents_.size();
+        referents_ = Collections.unmodifiableList(referents_);
+
+        activeIndices_ = IntStream.range(0, sinks().size()).toArray();
+
+        // So is the plan, which decides the form of the composite results.
+        plan_ = layOutPlan();
     }
 
     @Override
     List<XPathExpression> referents() {
-        return sinks().stream()
-                      .map(s -> s.referents())
-                      .flatMap(List::stream)
-                      .collect(Collectors.toList());
+        return referents_;
+    }
+
+    @Override
+    Plan plan() {
+        return plan_;
+    }
+
+    private Plan layOutPlan() {
+        List<Plan> plans = sinks().stream()
+                                  .map(Sink::plan)
+                                  .collect(Collectors.toList());
+        if (plans.size() == 1) {
+            return plans.get(0);
+        } else {
+            Plan.Form form = plans.stream().anyMatch(p -> p.form() == Plan.Form.DOM) ?
+                Plan.Form.DOM : Plan.Form.SAX;
+            String description = parallelDispatch_ ?
+                "Parallel fan-out to " : "Fan-out to ";
+            return new Plan(description + plans.size() + " sinks", form, plans);
+        }
+    }
+
+    /**
+     * Returns the plan of one of the sinks, which is a part of the plan of this object.
+     *
+     * @param j
+     *      the index of the sink in {@code sinks_}.
+     *
+     * @return
+     *      the plan of the sink, which is not {@code null}.
+     */
+    private Plan planOf(int j) {
+        return (sinks().size() == 1) ? plan_ : plan_.sinks().get(j);
     }
 
     @Override
     boolean[] preexamineBundle(String[] origSrcFileNames, LongFunction<Resource>[] finders) {
-        includes_ = sinks().stream()
-                           .map(s -> s.preexamineBundle(origSrcFileNames, finders))
-                           .toArray(boolean[][]::new);
-
-        boolean[] results = new boolean[includes_[0].length];
-        IntStream.range(0, results.length)
-                 .forEach(j -> results[j] = IntStream.range(0, includes_.length)
-                                                     .anyMatch(i -> includes_[i][j]));
+        // includes[i][j] tells whether sinks_.get(i) wants the source indexed by j
+        // to be processed.
+        boolean[][] includes = sinks().stream()
+                                      .map(s -> s.preexamineBundle(origSrcFileNames, finders))
+                                      .toArray(boolean[][]::new);
+
+        boolean[] results = new boolean[origSrcFileNames.length];
+        activeIndices_ = IntStream.range(0, includes.length)
+                                  .filter(i -> or(includes[i], results))
+                                  .toArray();
         return results;
     }
 
+    /**
+     * Accumulates an array of necessity into another by logical OR.
+     *
+     * @param includes
+     *      an array of necessity.
+     * @param accumulated
+     *      an array into which {@code includes} is accumulated,
+     *      whose length shall be the same as {@code includes}.
+     *
+     * @return
+     *      {@code true} if {@code includes} has at least one {@code true} element;
+     *      {@code false} otherwise.
+     */
+    private static boolean or(boolean[] includes, boolean[] accumulated) {
+        boolean any = false;
+        for (int j = 0; j < includes.length; ++j) {
+            if (includes[j]) {
+                accumulated[j] = true;
+                any = true;
+            }
+        }
+        return any;
+    }
+
     @Override
     void startBundle() {
         forEachIncludedSink(Sink::startBundle);
@@ -173,14 +296,8 @@ final class Sinks extends Sink {
     }
 
     private void forEachIncludedSink(Consumer<Sink> f) {
-        if (includes_ == null) {
-            sinks().stream().forEach(f);
-        } else {
-            IntStream.range(0, includes_.length)
-                     .filter(i -> IntStream.range(0, includes_[i].length)
-                                           .anyMatch(j -> includes_[i][j]))
-                     .mapToObj(i -> sinks().get(i))
-                     .forEach(f);
+        for (int j : activeIndices_) {
+            f.accept(sinks().get(j));
         }
     }
 
@@ -188,31 +305,25 @@ final class Sinks extends Sink {
     Result startOne(int origSrcIndex, String origSrcFileName,
             LongFunction<Resource> finder, List<String> referredContents) {
         Assemblage<Sink> activeSinks = new Assemblage<>();
-        CompositeResultBuilder builder = new CompositeResultBuilder(xmlHelper_, location_);
-        int j = 0;
+        CompositeResultBuilder builder =
+            new CompositeResultBuilder(xmlHelper_, location_, parallelDispatch_);
         try {
-            int i = 0;
-            for (; j < sinks().size(); ++j) {
+            for (int j : activeIndices_) {
+                Sink sink = sinks().get(j);
                 // Grab referred contents for this sink.
-                List<String> referredContentsOne =
-                    referredContents.subList(i, i + sinks().get(j).referents().size());
-                i += sinks().get(j).referents().size();
-                // If the sink does not include sources at all, skip it.
-                if (includes_ != null) {
-                    boolean[] includesOne = includes_[j];
-                    if (IntStream.range(0, includesOne.length).noneMatch(k -> includesOne[k])) {
-                        continue;
-                    }
-                }
+                List<String> referredContentsOne = referredContents.isEmpty() ?
+                    referredContents :
+                    referredContents.subList(referentOffsets_[j], referentOffsets_[j + 1]);
                 // Open the result of the sink.
-                Result result = sinks().get(j).startOne(
+                Result result = sink.startOne(
                     origSrcIndex, origSrcFileName, finder, referredContentsOne);
                 if (result != null) {
                     // First, we populate activeSinks.
-                    activeSinks.add(sinks().get(j));
+                    activeSinks.add(sink);
                     // Second, we populate builder.
-                    builder.add(result);    // We don't assume if any exception thrown here
-                                            // it is a recoverable situation.
+                    // We don't assume if any exception thrown here it is a recoverable
+                    // situation.
+                    builder.add(result, planOf(j).form());
                 }
             }
         } catch (RuntimeException e) {
@@ -287,7 +398,22 @@ final class Sinks extends Sink {
 
     @Override
     void finishBundle() {
-        forEachIncludedSink(Sink::finishBundle);
+        // A nonfatal error of one sink shall not keep the others from finishing.
+        NonfatalBuildException failure = null;
+        for (int j : activeIndices_) {
+            try {
+                sinks().get(j).finishBundle();
+            } catch (NonfatalBuildException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     /** A collection of TrAX Results. */
@@ -313,9 +439,19 @@ final class Sinks extends Sink {
          */
         public final Sink abort(List<Sink> sinks) {
             assert sinks.size() == results_.size();
+            cancel();
             return abortRange(IntStream.range(0, sinks.size()), sinks);
         }
 
+        /**
+         * Stops delivering the document to the results, which is invoked first by
+         * {@link #abort(List)}.
+         *
+         * <p>The {@code cancel} method of {@code Results} does nothing.</p>
+         */
+        protected void cancel() {
+        }
+
         protected final Sink abortRange(IntStream indices, List<Sink> sinks) {
             return indices.mapToObj(i -> sinks.get(i).abortOne(results_.get(i)))
                           .filter(e -> e != null)
@@ -362,9 +498,28 @@ final class Sinks extends Sink {
                         abortRangeAndThrow(IntStream.range(i + 1, sinks.size()), sinks, e);
                     }
                 }
+
+                @Override
+                protected void cancel() {
+                    if (handler instanceof ParallelHandler) {
+                        ((ParallelHandler) handler).cancel();
+                    }
+                }
             };
         }
 
+        @Override
+        public void setSystemId(String systemId) {
+            super.setSystemId(systemId);
+            // Some results (such as Transform's ones for associated stylesheets) resolve
+            // relative URIs in the document they received only after the delivery
+            for (Result r : results_.asList()) {
+                if (r.getSystemId() == null) {
+                    r.setSystemId(systemId);
+                }
+            }
+        }
+
         @Override
         public Results results() {
             return results_;
@@ -373,55 +528,218 @@ final class Sinks extends Sink {
 
     private static class CompositeDOMResult extends DOMResult implements CompositeResult {
         private Location location_;
+        private boolean parallel_;
         private Results results_;
 
-        public CompositeDOMResult(
-                Node node, List<Result> results, XMLHelper xferFactory, Location location) {
+        public CompositeDOMResult(Node node, List<Result> results, XMLHelper xferFactory,
+                Location location, boolean parallel) {
             super(node);
             location_ = location;
+            parallel_ = parallel;
             results_ = new Results(results) {
                 @Override
                 public void finish(List<Sink> sinks) {
                     List<Result> rs = asList();
 
-                    // Search a real DOMResult
+                    // Search a real DOMResult to which the tree is sent by move
                     // Those which getNode() == null have high priority
                     OptionalInt realDOM = IntStream.range(0, sinks.size())
-                        .filter(i -> rs.get(i) instanceof DOMResult)
+                        .filter(i -> (rs.get(i) instanceof DOMResult) && !isSharable(rs.get(i)))
                         .reduce((i, j) -> (((DOMResult) rs.get(j)).getNode() == null) ? j : i);
-                    assert realDOM.isPresent();
-                    int j = realDOM.getAsInt();
+
+                    // First those which receive copies, second those which share the tree,
+                    // and finally the one which receives the tree by move
+                    int[] order = IntStream.concat(
+                        IntStream.concat(
+                            IntStream.range(0, sinks.size())
+                                     .filter(i -> !isSharable(rs.get(i)))
+                                     .filter(i -> i != realDOM.orElse(-1)),
+                            IntStream.range(0, sinks.size())
+                                     .filter(i -> isSharable(rs.get(i)))),
+                        realDOM.isPresent() ? IntStream.of(realDOM.getAsInt()) : IntStream.empty())
+                        .toArray();
 
                     XMLTransfer xfer = xferFactory.transfer();
-                    DOMSource source = new DOMSource(getNode());
+                    DOMSource source = new DOMSource(getNode(), getSystemId());
+
+                    int[] copied = Arrays.stream(order)
+                                         .filter(i -> !isSharable(rs.get(i)))
+                                         .filter(i -> i != realDOM.orElse(-1))
+                                         .toArray();
+                    if (parallel_ && (copied.length > 1)) {
+                        finishConcurrently(sinks, order, copied, realDOM, xfer, source);
+                        return;
+                    }
 
-                    // For indices other than j, send the result by copy
-                    int i = 0;
+                    int p = 0;
                     try {
-                        while (i < sinks.size()) {
-                            if (i != j) {
-                                xfer.transfer(source, rs.get(i), false, location_);
-                                ++i;
-                                sinks.get(i - 1).finishOne(rs.get(i - 1));
+                        while (p < order.length) {
+                            int i = order[p];
+                            Result r = rs.get(i);
+                            if (isSharable(r)) {
+                                ((DOMResult) r).setNode(getNode());
+                                if (r.getSystemId() == null) {
+                                    r.setSystemId(getSystemId());
+                                }
                             } else {
-                                ++i;
+                                xfer.transfer(source, r, (i == realDOM.orElse(-1)), location_);
                             }
+                            ++p;
+                            sinks.get(i).finishOne(r);
                         }
                     } catch (RuntimeException e) {
                         // Sinks which have not been finished shall be aborted
                         abortRangeAndThrow(
-                            IntStream.concat(IntStream.range(i, sinks.size()), IntStream.of(j))
-                                     .distinct(),
-                            sinks, e);
+                            IntStream.range(p, order.length).map(q -> order[q]), sinks, e);
+                    }
+                }
+
+                /**
+                 * Finishes the sinks which receive copies of the tree concurrently.
+                 *
+                 * <p>A DOM tree cannot be read on multiple threads at once even if it is not
+                 * modified, because its nodes cache their children lazily. So only this
+                 * thread reads the tree: it records the tree once into an
+                 * {@link EventBuffer}, which is replayed to the SAX results on separate
+                 * threads, and makes the copies for the other results, whose sinks are
+                 * finished on separate threads. Those which share the tree and the one which
+                 * receives the tree by move come after them on this thread.</p>
+                 */
+                private void finishConcurrently(List<Sink> sinks, int[] order, int[] copied,
+                        OptionalInt realDOM, XMLTransfer xfer, DOMSource source) {
+                    List<Result> rs = asList();
+                    RuntimeException[] failures = new RuntimeException[sinks.size()];
+                    boolean[] doomed = new boolean[sinks.size()];
+
+                    EventBuffer buffer = null;
+                    try {
+                        if (Arrays.stream(copied).anyMatch(i -> rs.get(i) instanceof SAXResult)) {
+                            buffer = new EventBuffer();
+                            SAXResult bufferResult = new SAXResult(buffer);
+                            bufferResult.setLexicalHandler(buffer);
+                            xfer.transfer(source, bufferResult, false, location_);
+                        }
+                    } catch (RuntimeException e) {
+                        // No sinks have been finished yet
+                        abortRangeAndThrow(Arrays.stream(order), sinks, e);
+                    }
+                    for (int i : copied) {
+                        Result r = rs.get(i);
+                        if (!(r instanceof SAXResult)) {
+                            try {
+                                xfer.transfer(source, r, false, location_);
+                            } catch (RuntimeException e) {
+                                failures[i] = e;
+                                doomed[i] = (sinks.get(i).abortOne(r) != null);
+                            }
+                        }
+                    }
+
+                    EventBuffer events = buffer;
+                    Arrays.stream(copied)
+                          .filter(i -> failures[i] == null)
+                          .parallel()
+                          .forEach(i -> {
+                        Result r = rs.get(i);
+                        if (r instanceof SAXResult) {
+                            try {
+                                replay(events, (SAXResult) r);
+                            } catch (RuntimeException e) {
+                                failures[i] = e;
+                                doomed[i] = (sinks.get(i).abortOne(r) != null);
+                                return;
+                            }
+                        }
+                        try {
+                            sinks.get(i).finishOne(r);
+                        } catch (RuntimeException e) {
+                            failures[i] = e;
+                        }
+                    });
+
+                    RuntimeException failure = Arrays.stream(failures)
+                                                     .filter(e -> e != null)
+                                                     .findFirst()
+                                                     .orElse(null);
+                    int[] rest = Arrays.stream(order)
+                                       .filter(i -> isSharable(rs.get(i))
+                                                 || (i == realDOM.orElse(-1)))
+                                       .toArray();
+                    if (failure == null) {
+                        int p = 0;
+                        try {
+                            while (p < rest.length) {
+                                int i = rest[p];
+                                Result r = rs.get(i);
+                                if (isSharable(r)) {
+                                    ((DOMResult) r).setNode(getNode());
+                                    if (r.getSystemId() == null) {
+                                        r.setSystemId(getSystemId());
+                                    }
+                                } else {
+                                    xfer.transfer(source, r, true, location_);
+                                }
+                                ++p;
+                                sinks.get(i).finishOne(r);
+                            }
+                        } catch (RuntimeException e) {
+                            int q = p;
+                            abortRangeAndThrow(
+                                IntStream.range(q, rest.length).map(k -> rest[k]), sinks, e);
+                        }
+                        return;
+                    }
+
+                    // Like the sequential case, a failure aborts the rest
+                    if (abortRange(Arrays.stream(rest), sinks) != null) {
+                        throw new BuildException(ABORT_DOOMED, failure);
+                    }
+                    for (boolean d : doomed) {
+                        if (d) {
+                            throw new BuildException(ABORT_DOOMED, failure);
+                        }
                     }
+                    throw failure;
+                }
 
-                    // For the index j, send the result by move
-                    xfer.transfer(source, rs.get(j), true, location_);
-                    sinks.get(j).finishOne(rs.get(j));
+                private void replay(EventBuffer events, SAXResult result) {
+                    ContentHandler handler = result.getHandler();
+                    LexicalHandler lexicalHandler;
+                    if (result.getLexicalHandler() != null) {
+                        lexicalHandler = result.getLexicalHandler();
+                    } else if (handler instanceof LexicalHandler) {
+                        lexicalHandler = (LexicalHandler) handler;
+                    } else {
+                        lexicalHandler = null;
+                    }
+                    try {
+                        events.replay(handler, lexicalHandler);
+                    } catch (SAXException e) {
+                        throw new NonfatalBuildException(e, location_);
+                    }
+                    if (result.getSystemId() == null) {
+                        result.setSystemId(getSystemId());
+                    }
                 }
             };
         }
 
+        /**
+         * Tells whether a TrAX {@code Result} can share the DOM tree with others
+         * without receiving a private copy.
+         *
+         * @param result
+         *      a TrAX {@code Result}, which shall not be {@code null}.
+         *
+         * @return
+         *      {@code true} if {@code result} can share the tree; {@code false} otherwise.
+         */
+        private static boolean isSharable(Result result) {
+            return (result instanceof ReadOnlyDOMResult)
+                && (result instanceof DOMResult)
+                && (((DOMResult) result).getNode() == null);
+        }
+
         @Override
         public Results results() {
             return results_;
@@ -432,16 +750,31 @@ final class Sinks extends Sink {
 
         private XMLHelper xferFactory_;
         private Location location_;
+        private boolean parallel_;
         private List<Result> results_ = new ArrayList<>();
+        private boolean needsDOM_ = false;
 
-        public CompositeResultBuilder(XMLHelper xferFactory, Location location) {
+        public CompositeResultBuilder(XMLHelper xferFactory, Location location,
+                boolean parallel) {
             xferFactory_ = xferFactory;
             location_ = location;
+            parallel_ = parallel;
         }
 
-        public void add(Result result) {
+        /**
+         * Adds a result opened by a sink.
+         *
+         * @param result
+         *      a TrAX {@code Result}, which shall not be {@code null}.
+         * @param form
+         *      the form in which the sink receives documents according to its plan,
+         *      which shall not be {@code null}.
+         */
+        public void add(Result result, Plan.Form form) {
             assert result != null;
+            assert (form == Plan.Form.DOM) == (result instanceof DOMResult);
             results_.add(result);
+            needsDOM_ |= (form == Plan.Form.DOM);
         }
 
         public Result newCompositeResult() {
@@ -451,16 +784,20 @@ final class Sinks extends Sink {
             if (results_.size() == 1) {
                 return results_.get(0);
             }
-            if (results_.stream().anyMatch(r -> r instanceof DOMResult)) {
+            // A DOM tree is built only if the plans of the sinks tell so.
+            if (needsDOM_) {
                 return new CompositeDOMResult(
                     xferFactory_.transfer().newDocument(location_),
-                    results_, xferFactory_, location_);
+                    results_, xferFactory_, location_, parallel_);
             }
 
             try {
+                // lexicalHandlers.get(i) is the lexical handler which accompanies
+                // contentHandlers.get(i), or null if absent
                 List<ContentHandler> contentHandlers = new ArrayList<>();
                 List<LexicalHandler> lexicalHandlers = new ArrayList<>();
-                SAXTransformerFactory tfac = null;
+                List<Result> identityResults = new ArrayList<>();
+                List<OutputStream> byteStreams = new ArrayList<>();
                 for (Result result : results_) {
                     if (result instanceof SAXResult) {
                         SAXResult saxResult = (SAXResult) result;
@@ -469,24 +806,94 @@ final class Sinks extends Sink {
                             lexicalHandlers.add(saxResult.getLexicalHandler());
                         } else if (saxResult.getHandler() instanceof LexicalHandler) {
                             lexicalHandlers.add((LexicalHandler) saxResult.getHandler());
+                        } else {
+                            lexicalHandlers.add(null);
                         }
+                    } else if (isPlainByteStream(result)) {
+                        byteStreams.add(((StreamResult) result).getOutputStream());
                     } else {
-                        if (tfac == null) {
-                            tfac = (SAXTransformerFactory) TransformerFactory.newInstance();
-                        }
+                        identityResults.add(result);
+                    }
+                }
+
+                // All plain byte streams would receive identical serialization
+                // by identity transformers with default output properties,
+                // so we serialize the document once and copy the bytes into them.
+                if (byteStreams.size() == 1) {
+                    identityResults.add(new StreamResult(byteStreams.get(0)));
+                } else if (byteStreams.size() > 1) {
+                    identityResults.add(new StreamResult(new FanOutOutputStream(byteStreams)));
+                }
+
+                if (!identityResults.isEmpty()) {
+                    SAXTransformerFactory tfac =
+                        (SAXTransformerFactory) TransformerFactory.newInstance();
+                    for (Result result : identityResults) {
                         TransformerHandler identity = tfac.newTransformerHandler();
                         identity.setResult(result);
                         contentHandlers.add(identity);
                         lexicalHandlers.add(identity);
                     }
                 }
-                return new CompositeSAXResult(
-                    new CompositeHandler(contentHandlers, lexicalHandlers), results_);
+                // Handlers of slow sinks (such as stylesheets) block the others unless
+                // they are fed in parallel.
+                ContentHandler handler = (parallel_ && (contentHandlers.size() > 1)) ?
+                    new ParallelHandler(contentHandlers, lexicalHandlers) :
+                    new CompositeHandler(contentHandlers, lexicalHandlers);
+                return new CompositeSAXResult(handler, results_);
             } catch (TransformerConfigurationException e) {
                 throw new BuildException(e);
             }
         }
 
+        /**
+         * Tells whether a TrAX {@code Result} is a {@code StreamResult} which simply
+         * receives serialized bytes into an {@code OutputStream}.
+         *
+         * @param result
+         *      a TrAX {@code Result}, which shall not be {@code null}.
+         *
+         * @return
+         *      {@code true} if {@code result} is such a {@code StreamResult};
+         *      {@code false} otherwise.
+         */
+        private static boolean isPlainByteStream(Result result) {
+            return (result instanceof StreamResult)
+                && (((StreamResult) result).getOutputStream() != null)
+                && (((StreamResult) result).getWriter() == null);
+        }
+
+        /** An output stream which writes all bytes into multiple output streams. */
+        private static class FanOutOutputStream extends OutputStream {
+
+            private OutputStream[] outs_;
+
+            public FanOutOutputStream(List<OutputStream> outs) {
+                outs_ = outs.toArray(new OutputStream[outs.size()]);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                for (OutputStream out : outs_) {
+                    out.write(b);
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                for (OutputStream out : outs_) {
+                    out.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                for (OutputStream out : outs_) {
+                    out.flush();
+                }
+            }
+        }
+
         private static class CompositeHandler implements ContentHandler, LexicalHandler {
 
             private List<ContentHandler> contentHandlers_;
@@ -495,7 +902,9 @@ final class Sinks extends Sink {
             public CompositeHandler(List<ContentHandler> contentHandlers,
                     List<LexicalHandler> lexicalHandlers) {
                 contentHandlers_ = contentHandlers;
-                lexicalHandlers_ = lexicalHandlers;
+                lexicalHandlers_ = lexicalHandlers.stream()
+                                                  .filter(h -> h != null)
+                                                  .collect(Collectors.toList());
             }
 
             @Override
@@ -8,27 +8,42 @@
 package net.furfurylic.chionographis;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.LongFunction;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.stream.Stream;
+import java.util.function.ToIntFunction;
 
 import javax.xml.XMLConstants;
 import javax.xml.namespace.NamespaceContext;
 import javax.xml.transform.Result;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
-import javax.xml.xpath.XPath;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathException;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.Resource;
@@ -38,6 +53,10 @@ import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.NamespaceSupport;
 
 import net.furfurylic.chionographis.Logger.Level;
 
@@ -47,15 +66,29 @@ import net.furfurylic.chionographis.Logger.Level;
  *
  * <p>The way of extraction is specified by <i>XPath</i> expression.
  * The root nodes of the fragments are the matched elements with the XPath expression.</p>
+ *
+ * <p>If the XPath expression is a simple location path such as {@code /feed/entry} or
+ * {@code //record[@type]}, the extraction is performed during a SAX pass of each source
+ * and each fragment is passed to the sinks as soon as its end tag arrives,
+ * so the whole source is not materialized.</p>
  */
 public final class Snip extends Filter {
 
     private String select_ = null;
     private Doctype doctype_ = null;
+    private Path fragmentIndex_ = null;
 
     private NamespaceContext namespaceContext_;
-    private XPathExpression expr_;
-    private final ReentrantLock lock_ = new ReentrantLock();
+    private StreamablePath path_;
+    private volatile XPathExpression expr_;
+    private boolean dryRun_;
+    private FragmentIndex index_ = null;
+
+    /**
+     * The keys of the original sources whose all fragments have been sent in the current
+     * bundle, which is {@code null} unless the fragment index is used.
+     */
+    private Set<String> reprocessed_ = null;
 
     /** Sole constructor. */
     Snip() {
@@ -76,6 +109,26 @@ public final class Snip extends Filter {
         select_ = xpath;
     }
 
+    /**
+     * Sets the file path of the index of the content digests of the snipped fragments.
+     * If the given string represents an relative path, it is resolved by
+     * {@linkplain Chionographis#setBaseDir(String) the base directory of the task}.
+     *
+     * <p>If set, this filter records the digest of the content of each fragment in the index
+     * with the time since when the fragment has had the content. The fragments are identified
+     * by their original sources and the source contents referred by the sink, which decide
+     * their destinations. When an original source is processed again, the sink regards the
+     * fragments whose contents are unchanged as not newer than their destinations written after
+     * that time, so they are neither transformed nor written again. If the sink does not refer
+     * the source contents, this attribute is ignored.</p>
+     *
+     * @param fragmentIndex
+     *      the file path of the index.
+     */
+    public void setFragmentIndex(String fragmentIndex) {
+        fragmentIndex_ = Paths.get(fragmentIndex);
+    }
+
     /**
      * Creates a new {@link Doctype} object which instructs this filter to embed a document type
      * declaration.
@@ -106,6 +159,32 @@ public final class Snip extends Filter {
         }
         sink().init(baseDir, namespaceContext, xmlHelper(), logger(), isForce(), dryRun);
         namespaceContext_ = namespaceContext;
+
+        // If the expression is simple enough, the fragments are snipped during a SAX pass
+        // so that the whole source need not be materialized.
+        path_ = StreamablePath.compile(select_, namespaceContext);
+        if (path_ == null) {
+            logger().log(this, "Snipping criterion " + select_
+                + " is not streamable; sources are materialized", Level.VERBOSE);
+        }
+
+        if (fragmentIndex_ != null) {
+            if (sink().referents().isEmpty()) {
+                logger().log(this, "The fragment index is not used "
+                    + "because the sink does not refer the source contents", Level.VERBOSE);
+                fragmentIndex_ = null;
+            } else {
+                fragmentIndex_ = baseDir.toPath().resolve(fragmentIndex_);
+            }
+        }
+        dryRun_ = dryRun;
+    }
+
+    @Override
+    Plan plan() {
+        return new Plan("Snip (select=" + select_ + ")",
+            ((path_ != null) ? Plan.Form.SAX : Plan.Form.DOM),
+            Collections.singletonList(sink().plan()));
     }
 
     @Override
@@ -116,93 +195,137 @@ public final class Snip extends Filter {
     @Override
     void startBundle() {
         sink().startBundle();
+        if (fragmentIndex_ != null) {
+            try {
+                index_ = FragmentIndex.load(fragmentIndex_);
+                reprocessed_ = ConcurrentHashMap.newKeySet();
+            } catch (IOException e) {
+                logger().log(this, "Failed to load the fragment index " + fragmentIndex_
+                    + "; all fragments will be regarded as changed", Level.WARN);
+                logger().log(this, e, "  Cause: ", Level.INFO, Level.VERBOSE);
+                index_ = null;
+            }
+        }
     }
 
     @Override
     Result startOne(int origSrcIndex, String origSrcFileName,
             LongFunction<Resource> finder, List<String> notUsed) {
-        return new SnipDOMResult(origSrcIndex, origSrcFileName, finder);
+        if (path_ != null) {
+            logger().log(this, "Applying snipping criterion " + select_ +
+                " in streaming; the original source is " + origSrcFileName, Level.DEBUG);
+            return new SnipSAXResult(origSrcIndex, origSrcFileName, finder);
+        } else {
+            return new SnipDOMResult(origSrcIndex, origSrcFileName, finder);
+        }
     }
 
     @Override
     void finishOne(Result result) {
         assert result != null;
+        if (result instanceof SnipSAXResult) {
+            SnipSAXResult r = (SnipSAXResult) result;
+            logCount(r.count(), r.origSrcFileName());
+            reprocessed(r.origSrcFileName());
+            return;
+        }
         assert result instanceof SnipDOMResult;
         SnipDOMResult r = (SnipDOMResult) result;
 
         // Apply XPath expression to current document
         logger().log(this, "Applying snipping criterion " + select_ +
             "; the original source is " + r.origSrcFileName(), Level.DEBUG);
-        NodeList nodes = extractNodes(r);
+        List<Element> elements = extractElements(r);
 
+        // The extracted elements have been detached from their parents,
+        // so they are independent subtrees and can be made into documents in parallel.
+        ToIntFunction<Element> send = e -> sendFragmentDocument(newFragmentDocument(e),
+            r.origSrcIndex(), r.origSrcFileName(), r.finder());
         int count;
         ForkJoinPool pool = ForkJoinTask.getPool();
-        Stream<Document> fragsStream =
-            IntStream.range(0, nodes.getLength())
-                     .mapToObj(i -> nodes.item(i))
-                     .filter(n -> n.getNodeType() == Node.ELEMENT_NODE)
-                     .map(n -> newFragmentDocument(n));
         if (pool != null) {
-            // We create documents sequentially.
-            List<Document> documents = fragsStream.collect(Collectors.toList());
-            // Created documents are passed to sink in parallel.
-            count = pool.submit(() -> documents.stream()
-                                               .parallel()
-                                               .mapToInt(d -> sendFragmentDocument(d, r))
-                                               .sum())
+            count = pool.submit(() -> elements.stream()
+                                              .parallel()
+                                              .mapToInt(send)
+                                              .sum())
                         .join();
             // It is OK if some fragments have failed.
         } else {
-            count = fragsStream.mapToInt(d -> sendFragmentDocument(d, r))
-                               .sum();
+            count = elements.stream()
+                            .mapToInt(send)
+                            .sum();
         }
+        logCount(count, r.origSrcFileName());
+        reprocessed(r.origSrcFileName());
+    }
+
+    private void reprocessed(String origSrcFileName) {
+        if (index_ != null) {
+            reprocessed_.add(sourceKey(origSrcFileName));
+        }
+    }
+
+    /**
+     * Makes the part of the keys of the fragment index which tells the original source.
+     */
+    private static String sourceKey(String origSrcFileName) {
+        return (origSrcFileName != null) ? origSrcFileName : "";
+    }
+
+    private void logCount(int count, String origSrcFileName) {
         if (count > 0) {
             logger().log(this, count + " snipped fragments processed", Level.DEBUG);
         } else {
             logger().log(this, "No snipped fragments generated; the original source is " +
-                    r.origSrcFileName(), Level.INFO);
+                    origSrcFileName, Level.INFO);
         }
     }
 
-    private NodeList extractNodes(DOMResult result) {
+    /**
+     * Extracts the elements matched with the XPath expression
+     * and detaches them from their parents.
+     */
+    private List<Element> extractElements(DOMResult result) {
         NodeList nodes;
 
-        lock_.lock();
-        try {
-            // Compile the XPath once
-            if (expr_ == null) {
-                XPath xpath = XPathFactory.newInstance().newXPath();
-                xpath.setNamespaceContext(namespaceContext_);
-                try {
-                    expr_ = xpath.compile(select_);
-                } catch (XPathException e) {
-                    throw new BuildException(
-                        "Failed to compile the XPath expression: " + select_, e, getLocation());
-                }
-            }
-
-            // Apply the XPath to extract nodes
+        // Compile the XPath once; a race between threads only wastes one compilation
+        XPathExpression expr = expr_;
+        if (expr == null) {
             try {
-                nodes = (NodeList) expr_.evaluate(result.getNode(), XPathConstants.NODESET);
-            } catch (XPathExpressionException e) {
-                throw new NonfatalBuildException(
-                    "Failed to apply the XPath expression: " + select_, e, getLocation());
+                expr = new PerThreadXPathExpression(select_, namespaceContext_);
+            } catch (XPathException e) {
+                throw new BuildException(
+                    "Failed to compile the XPath expression: " + select_, e, getLocation());
             }
-        } finally {
-            lock_.unlock();
+            expr_ = expr;
+        }
+
+        // Apply the XPath to extract nodes
+        try {
+            nodes = (NodeList) expr.evaluate(result.getNode(), XPathConstants.NODESET);
+        } catch (XPathExpressionException e) {
+            throw new NonfatalBuildException(
+                "Failed to apply the XPath expression: " + select_, e, getLocation());
         }
 
         // Copy all namespace decls in effect on extracted elements
         // in order to keep valid qualified names of their descendants and themselves
-        // (maybe a needless fear...)
+        // (maybe a needless fear...), and then detach them from their parents
+        Map<Node, Map<String, Attr>> inScopeDecls = new IdentityHashMap<>();
+        List<Element> elements = new ArrayList<>(nodes.getLength());
         for (int i = 0; i < nodes.getLength(); ++i) {
             Node node = nodes.item(i);
             if (node.getNodeType() == Node.ELEMENT_NODE) {
-                copyAncestralNamespaceDecls((Element) node);
+                Element e = (Element) node;
+                copyAncestralNamespaceDecls(e, inScopeDecls);
+                elements.add(e);
             }
         }
+        for (Element e : elements) {
+            e.getParentNode().removeChild(e);
+        }
 
-        return nodes;
+        return elements;
     }
 
     /**
@@ -210,26 +333,54 @@ public final class Snip extends Filter {
      *
      * @param e
      *      an element.
+     * @param inScopeDecls
+     *      a map which memoizes the "xmlns" attributes in effect on each element keyed by
+     *      their local names, which is shared among the elements from the same document
+     *      so that each ancestor is visited only once.
      */
-    private void copyAncestralNamespaceDecls(Element e) {
+    private static void copyAncestralNamespaceDecls(Element e,
+            Map<Node, Map<String, Attr>> inScopeDecls) {
         // We can use XPath "namespace::*" on e to know namespace decls in effect at once,
         // but javax.xml.xpath seems to lack plausible ways to pull out the results. Sigh...
 
-        Node ee = e;
-        for (;;) {
-            ee = ee.getParentNode();
-            if ((ee == null) || (ee.getNodeType() != Node.ELEMENT_NODE)) {
-                return;
+        for (Attr attr : getInScopeNamespaceDecls(e.getParentNode(), inScopeDecls).values()) {
+            if (e.getAttributeNodeNS(attr.getNamespaceURI(), attr.getLocalName()) == null) {
+                e.setAttributeNodeNS((Attr) attr.cloneNode(true));
             }
-            NamedNodeMap atts = ee.getAttributes();
+        }
+    }
+
+    private static Map<String, Attr> getInScopeNamespaceDecls(Node node,
+            Map<Node, Map<String, Attr>> inScopeDecls) {
+        // Walk up to the nearest memoized ancestor, and then walk down memoizing
+        Deque<Node> unknowns = new ArrayDeque<>();
+        Map<String, Attr> decls = Collections.emptyMap();
+        for (Node n = node; (n != null) && (n.getNodeType() == Node.ELEMENT_NODE);
+                n = n.getParentNode()) {
+            Map<String, Attr> known = inScopeDecls.get(n);
+            if (known != null) {
+                decls = known;
+                break;
+            }
+            unknowns.push(n);
+        }
+        while (!unknowns.isEmpty()) {
+            Node n = unknowns.pop();
+            NamedNodeMap atts = n.getAttributes();
+            Map<String, Attr> nDecls = decls;
             for (int j = 0; j < atts.getLength(); ++j) {
                 Attr attr = (Attr) atts.item(j);
-                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())
-                 && (e.getAttributeNodeNS(attr.getNamespaceURI(), attr.getLocalName()) == null)) {
-                    e.setAttributeNodeNS((Attr) attr.cloneNode(true));
+                if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attr.getNamespaceURI())) {
+                    if (nDecls == decls) {
+                        nDecls = new HashMap<>(decls);
+                    }
+                    nDecls.put(attr.getLocalName(), attr);
                 }
             }
+            inScopeDecls.put(n, nDecls);
+            decls = nDecls;
         }
+        return decls;
     }
 
     private Document newFragmentDocument(Node node) {
@@ -238,7 +389,8 @@ public final class Snip extends Filter {
         return document;
     }
 
-    private int sendFragmentDocument(Document document, SnipDOMResult result) {
+    private int sendFragmentDocument(Document document,
+            int origSrcIndex, String origSrcFileName, LongFunction<Resource> finder) {
         // Search the source contents if necessary
         List<XPathExpression> referents = sink().referents();
         List<String> referredContents;
@@ -246,13 +398,15 @@ public final class Snip extends Filter {
             referredContents = XMLUtils.extract(document, referents);
             logger().log(this, "Referred source data: "
                 + String.join(", ", referredContents), Level.DEBUG);
+            if (index_ != null) {
+                finder = mixFragmentIndex(document, origSrcFileName, referredContents, finder);
+            }
         } else {
             referredContents = Collections.emptyList();
         }
 
         // Open sink's result
-        Result rr = sink().startOne(result.origSrcIndex(), result.origSrcFileName(),
-            result.finder(), referredContents);
+        Result rr = sink().startOne(origSrcIndex, origSrcFileName, finder, referredContents);
         if (rr != null) {
             // Prepare DOCTYPE
             if (doctype_ != null) {
@@ -267,15 +421,67 @@ public final class Snip extends Filter {
         return 1;
     }
 
+    /**
+     * Makes a finder which does not regard the original source itself as newer than the
+     * destinations written since the fragment has had the current content. The resources which
+     * the original source refers (such as those told by {@code <depends>}) are still regarded.
+     */
+    private LongFunction<Resource> mixFragmentIndex(Document document, String origSrcFileName,
+            List<String> referredContents, LongFunction<Resource> finder) {
+        PooledByteArrayOutputStream out = new PooledByteArrayOutputStream(BufferPool.BYTES);
+        byte[] digest;
+        try {
+            xmlHelper().transfer().transfer(
+                new DOMSource(document), new StreamResult(out), getLocation());
+            MessageDigest md = DigestIndex.newDigest();
+            md.update(out.buffer(), 0, out.size());
+            digest = md.digest();
+        } finally {
+            out.recycle();
+        }
+
+        StringBuilder key = new StringBuilder(sourceKey(origSrcFileName));
+        for (String referredContent : referredContents) {
+            key.append('\n').append(referredContent);
+        }
+        long since = index_.since(key.toString(), digest);
+        return l -> {
+            Resource r = finder.apply(l);
+            if ((l >= since) && (r instanceof ReferencedSources.Origin)) {
+                // The source itself does not count, but the resources it refers still do
+                r = ((ReferencedSources.Origin) r).findAnyNewerReference();
+            }
+            return r;
+        };
+    }
+
     @Override
     Sink abortOne(Result result) {
-        // sink().startOne(int, String) is not invoked yet,
+        // sink().startOne(int, String) is not invoked yet or has been finished,
         // so we can evade call sink().abortOne().
         return null;
     }
 
     @Override
     void finishBundle() {
+        if (index_ != null) {
+            // Fragments which have vanished from the reprocessed sources shall be forgotten.
+            index_.prune(k -> {
+                int newline = k.indexOf('\n');
+                return reprocessed_.contains((newline >= 0) ? k.substring(0, newline) : k);
+            });
+            reprocessed_ = null;
+            if (!dryRun_) {
+                try {
+                    index_.store();
+                } catch (IOException e) {
+                    logger().log(this,
+                        "Failed to store the fragment index " + fragmentIndex_, Level.WARN);
+                    logger().log(this, e, "  Cause: ", Level.INFO, Level.VERBOSE);
+                }
+            }
+            index_ = null;
+        }
         sink().finishBundle();
     }
 
@@ -304,4 +510,260 @@ public final class Snip extends Filter {
             return finder_;
         }
     }
+
+    /**
+     * A TrAX {@code Result} which snips fragments from a source during a SAX pass
+     * and sends each of them to the sink as soon as its end tag arrives.
+     */
+    private final class SnipSAXResult extends SAXResult {
+        private final int origSrcIndex_;
+        private final String origSrcFileName_;
+        private final LongFunction<Resource> finder_;
+        private int count_ = 0;
+
+        public SnipSAXResult(
+                int origSrcIndex, String origSrcFileName, LongFunction<Resource> finder) {
+            origSrcIndex_ = origSrcIndex;
+            origSrcFileName_ = origSrcFileName;
+            finder_ = finder;
+            Snipper snipper = new Snipper();
+            setHandler(snipper);
+            setLexicalHandler(snipper);
+        }
+
+        public String origSrcFileName() {
+            return origSrcFileName_;
+        }
+
+        public int count() {
+            return count_;
+        }
+
+        /**
+         * A SAX handler which builds a document for each matched element.
+         * The elements are matched only with their ancestors. The events are sent only to the
+         * innermost fragment under construction, so a matched element nested in another one
+         * is detached from it as the DOM path does. The fragments are sent to the sink in
+         * the document order when the outermost of them is finished.
+         */
+        private final class Snipper extends DefaultHandler2 {
+            private final NamespaceSupport namespaces_ = new NamespaceSupport();
+            private boolean contextPushed_ = false;
+            private long[] states_ = new long[16];
+            private int depth_ = 0;
+
+            /** The fragments under construction, the innermost of which is the last. */
+            private final List<Fragment> fragments_ = new ArrayList<>();
+
+            /** The fragments which are started and not sent yet, in the document order. */
+            private final List<Fragment> unsent_ = new ArrayList<>();
+
+            /** The prefix mappings which have arrived before the next start tag. */
+            private final List<String[]> mappings_ = new ArrayList<>();
+
+            /** Whether the prefix mappings which end now go to the innermost fragment. */
+            private boolean endsMappings_ = false;
+
+            private SAXTransformerFactory factory_ = null;
+
+            @Override
+            public void startDocument() {
+                states_[0] = path_.initial();
+                depth_ = 0;
+            }
+
+            @Override
+            public void startPrefixMapping(String prefix, String uri) {
+                if (!contextPushed_) {
+                    namespaces_.pushContext();
+                    contextPushed_ = true;
+                }
+                namespaces_.declarePrefix(prefix, uri);
+                // Whether this goes to the innermost fragment or starts a new fragment
+                // is known only on the start tag
+                mappings_.add(new String[] { prefix, uri });
+            }
+
+            @Override
+            public void endPrefixMapping(String prefix) throws SAXException {
+                if (endsMappings_) {
+                    innermost().handler().endPrefixMapping(prefix);
+                }
+            }
+
+            @Override
+            public void startElement(String uri, String localName, String qName,
+                    Attributes atts) throws SAXException {
+                if (!contextPushed_) {
+                    namespaces_.pushContext();
+                }
+                contextPushed_ = false;
+
+                long state = (states_[depth_] != 0) ?
+                    path_.next(states_[depth_], uri, localName, atts) : 0;
+                ++depth_;
+                if (depth_ == states_.length) {
+                    states_ = Arrays.copyOf(states_, depth_ * 2);
+                }
+                states_[depth_] = state;
+                if (path_.matches(state)) {
+                    // The new fragment declares all namespaces in effect by itself
+                    Fragment fragment = startFragment();
+                    fragments_.add(fragment);
+                    unsent_.add(fragment);
+                } else if (!fragments_.isEmpty()) {
+                    for (String[] mapping : mappings_) {
+                        innermost().handler().startPrefixMapping(mapping[0], mapping[1]);
+                    }
+                }
+                mappings_.clear();
+
+                if (!fragments_.isEmpty()) {
+                    innermost().handler().startElement(uri, localName, qName, atts);
+                }
+            }
+
+            @Override
+            public void endElement(String uri, String localName, String qName)
+                    throws SAXException {
+                if (!fragments_.isEmpty()) {
+                    innermost().handler().endElement(uri, localName, qName);
+                }
+                boolean matches = path_.matches(states_[depth_]);
+                if (matches) {
+                    finishFragment(fragments_.remove(fragments_.size() - 1));
+                    if (fragments_.isEmpty()) {
+                        sendFragments();
+                    }
+                }
+                endsMappings_ = !matches && !fragments_.isEmpty();
+                --depth_;
+                namespaces_.popContext();
+            }
+
+            @Override
+            public void characters(char[] ch, int start, int length) throws SAXException {
+                if (!fragments_.isEmpty()) {
+                    innermost().handler().characters(ch, start, length);
+                }
+            }
+
+            @Override
+            public void ignorableWhitespace(char[] ch, int start, int length)
+                    throws SAXException {
+                if (!fragments_.isEmpty()) {
+                    innermost().handler().ignorableWhitespace(ch, start, length);
+                }
+            }
+
+            @Override
+            public void processingInstruction(String target, String data) throws SAXException {
+                if (!fragments_.isEmpty()) {
+                    innermost().handler().processingInstruction(target, data);
+                }
+            }
+
+            @Override
+            public void comment(char[] ch, int start, int length) throws SAXException {
+                if (!fragments_.isEmpty()) {
+                    innermost().handler().comment(ch, start, length);
+                }
+            }
+
+            @Override
+            public void startCDATA() throws SAXException {
+                if (!fragments_.isEmpty()) {
+                    innermost().handler().startCDATA();
+                }
+            }
+
+            @Override
+            public void endCDATA() throws SAXException {
+                if (!fragments_.isEmpty()) {
+                    innermost().handler().endCDATA();
+                }
+            }
+
+            private Fragment innermost() {
+                return fragments_.get(fragments_.size() - 1);
+            }
+
+            private Fragment startFragment() throws SAXException {
+                if (factory_ == null) {
+                    factory_ = (SAXTransformerFactory) TransformerFactory.newInstance();
+                }
+                TransformerHandler handler;
+                try {
+                    handler = factory_.newTransformerHandler();
+                } catch (TransformerConfigurationException e) {
+                    throw new BuildException(e, getLocation());
+                }
+                Document document = xmlHelper().transfer().newDocument(getLocation());
+                handler.setResult(new DOMResult(document));
+                handler.startDocument();
+
+                // Declare all namespaces in effect on the matched element
+                // in order to keep valid qualified names of its descendants and itself
+                List<String> prefixes = new ArrayList<>();
+                for (Enumeration<?> e = namespaces_.getPrefixes(); e.hasMoreElements();) {
+                    String prefix = (String) e.nextElement();
+                    if (!prefix.equals(XMLConstants.XML_NS_PREFIX)) {
+                        prefixes.add(prefix);
+                    }
+                }
+                String defaultNamespaceURI = namespaces_.getURI(XMLConstants.DEFAULT_NS_PREFIX);
+                if ((defaultNamespaceURI != null) && !defaultNamespaceURI.isEmpty()) {
+                    prefixes.add(XMLConstants.DEFAULT_NS_PREFIX);
+                }
+                for (String prefix : prefixes) {
+                    handler.startPrefixMapping(prefix, namespaces_.getURI(prefix));
+                }
+
+                return new Fragment(handler, document, prefixes);
+            }
+
+            private void finishFragment(Fragment fragment) throws SAXException {
+                for (String prefix : fragment.prefixes()) {
+                    fragment.handler().endPrefixMapping(prefix);
+                }
+                fragment.handler().endDocument();
+            }
+
+            private void sendFragments() {
+                try {
+                    for (Fragment fragment : unsent_) {
+                        count_ += sendFragmentDocument(fragment.document(),
+                            origSrcIndex_, origSrcFileName_, finder_);
+                    }
+                } finally {
+                    unsent_.clear();
+                }
+            }
+        }
+    }
+
+    /** A fragment document under construction in streaming. */
+    private static final class Fragment {
+        private final TransformerHandler handler_;
+        private final Document document_;
+        private final List<String> prefixes_;
+
+        public Fragment(TransformerHandler handler, Document document, List<String> prefixes) {
+            handler_ = handler;
+            document_ = document;
+            prefixes_ = prefixes;
+        }
+
+        public TransformerHandler handler() {
+            return handler_;
+        }
+
+        public Document document() {
+            return document_;
+        }
+
+        public List<String> prefixes() {
+            return prefixes_;
+        }
+    }
 }
@@ -0,0 +1,330 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+
+import org.xml.sax.Attributes;
+
+/**
+ * A location path of a subset of XPath which can be evaluated during a single SAX pass.
+ *
+ * <p>The supported paths consist of steps separated by {@code /} or {@code //},
+ * each of which has a name test ({@code name}, {@code prefix:name}, {@code prefix:*} or
+ * {@code *}) on the element axis and zero or more predicates which test attributes
+ * ({@code [@name]} or {@code [@name='value']}). The paths are evaluated against the
+ * document node, so {@code a/b} is equivalent to {@code /a/b}.</p>
+ *
+ * <p>The evaluation is done by states, each of which is represented by a bit set of the
+ * numbers of the steps matched by an element and its ancestors.
+ * Objects of this class are immutable and so thread safe.</p>
+ */
+final class StreamablePath {
+
+    private static final int MAX_STEPS = 62;
+
+    private final Step[] steps_;
+
+    private StreamablePath(List<Step> steps) {
+        steps_ = steps.toArray(new Step[steps.size()]);
+    }
+
+    /**
+     * Compiles an XPath expression into a streamable path.
+     *
+     * @param expression
+     *      an XPath expression, which can be {@code null}.
+     * @param namespaceContext
+     *      a namespace context which resolves the namespace prefixes in the expression.
+     *
+     * @return
+     *      a streamable path, or {@code null} if the expression is not in the streamable
+     *      subset or contains unbound namespace prefixes.
+     */
+    public static StreamablePath compile(String expression, NamespaceContext namespaceContext) {
+        if (expression == null) {
+            return null;
+        }
+        return new Parser(expression, namespaceContext).parse();
+    }
+
+    /**
+     * Returns the state of the document node.
+     *
+     * @return
+     *      the initial state.
+     */
+    public long initial() {
+        return 1L;
+    }
+
+    /**
+     * Computes the state of an element.
+     *
+     * @param parent
+     *      the state of the parent of the element.
+     * @param namespaceURI
+     *      the namespace URI of the element, which shall not be {@code null}.
+     * @param localName
+     *      the local name of the element.
+     * @param atts
+     *      the attributes of the element.
+     *
+     * @return
+     *      the state of the element, which is {@code 0} if neither the element nor its
+     *      descendants can match this path.
+     */
+    public long next(long parent, String namespaceURI, String localName, Attributes atts) {
+        long state = 0L;
+        for (int i = 0; i < steps_.length; ++i) {
+            if ((parent & (1L << i)) != 0) {
+                Step step = steps_[i];
+                if (step.descendant_) {
+                    state |= 1L << i;
+                }
+                if (step.matches(namespaceURI, localName, atts)) {
+                    state |= 1L << (i + 1);
+                }
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Tells whether an element with a state is selected by this path.
+     *
+     * @param state
+     *      the state of the element.
+     *
+     * @return
+     *      {@code true} if the element is selected, otherwise {@code false}.
+     */
+    public boolean matches(long state) {
+        return (state & (1L << steps_.length)) != 0;
+    }
+
+    private static final class Step {
+        private final boolean descendant_;
+        private final String namespaceURI_;
+        private final String localName_;
+        private final List<AttributeTest> attributeTests_;
+
+        public Step(boolean descendant, String namespaceURI, String localName,
+                List<AttributeTest> attributeTests) {
+            descendant_ = descendant;
+            namespaceURI_ = namespaceURI;
+            localName_ = localName;
+            attributeTests_ = attributeTests;
+        }
+
+        public boolean matches(String namespaceURI, String localName, Attributes atts) {
+            if (((localName_ != null) && !localName_.equals(localName))
+             || ((namespaceURI_ != null) && !namespaceURI_.equals(namespaceURI))) {
+                return false;
+            }
+            for (AttributeTest test : attributeTests_) {
+                if (!test.matches(atts)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class AttributeTest {
+        private final String namespaceURI_;
+        private final String localName_;
+        private final String value_;
+
+        public AttributeTest(String namespaceURI, String localName, String value) {
+            namespaceURI_ = namespaceURI;
+            localName_ = localName;
+            value_ = value;
+        }
+
+        public boolean matches(Attributes atts) {
+            String value = atts.getValue(namespaceURI_, localName_);
+            return (value != null) && ((value_ == null) || value_.equals(value));
+        }
+    }
+
+    /** A recursive descent parser of the streamable subset, which gives up on anything else. */
+    private static final class Parser {
+        private final String expression_;
+        private final NamespaceContext namespaceContext_;
+        private int position_ = 0;
+
+        public Parser(String expression, NamespaceContext namespaceContext) {
+            expression_ = expression;
+            namespaceContext_ = namespaceContext;
+        }
+
+        public StreamablePath parse() {
+            List<Step> steps = new ArrayList<>();
+            skipSpaces();
+            boolean descendant = false;
+            if (eat('/')) {
+                descendant = eat('/');
+            }
+            for (;;) {
+                Step step = parseStep(descendant);
+                if ((step == null) || (steps.size() == MAX_STEPS)) {
+                    return null;
+                }
+                steps.add(step);
+                skipSpaces();
+                if (position_ == expression_.length()) {
+                    return new StreamablePath(steps);
+                } else if (eat('/')) {
+                    descendant = eat('/');
+                } else {
+                    return null;
+                }
+            }
+        }
+
+        private Step parseStep(boolean descendant) {
+            skipSpaces();
+            String[] name = parseNameTest(true);
+            if (name == null) {
+                return null;
+            }
+            List<AttributeTest> attributeTests = new ArrayList<>();
+            for (;;) {
+                skipSpaces();
+                if (!eat('[')) {
+                    break;
+                }
+                skipSpaces();
+                if (!eat('@')) {
+                    return null;
+                }
+                String[] attributeName = parseNameTest(false);
+                if (attributeName == null) {
+                    return null;
+                }
+                skipSpaces();
+                String value = null;
+                if (eat('=')) {
+                    skipSpaces();
+                    value = parseLiteral();
+                    if (value == null) {
+                        return null;
+                    }
+                    skipSpaces();
+                }
+                if (!eat(']')) {
+                    return null;
+                }
+                attributeTests.add(new AttributeTest(attributeName[0], attributeName[1], value));
+            }
+            return new Step(descendant, name[0], name[1], attributeTests);
+        }
+
+        /**
+         * Parses a name test into a pair of the namespace URI and the local name,
+         * each of which is {@code null} if it is a wildcard.
+         */
+        private String[] parseNameTest(boolean allowsWildcards) {
+            String namespaceURI = XMLConstants.NULL_NS_URI;
+            String localName;
+            if (allowsWildcards && eat('*')) {
+                namespaceURI = null;
+                localName = null;
+            } else {
+                String first = parseNCName();
+                if (first == null) {
+                    return null;
+                }
+                if (eat(':')) {
+                    namespaceURI = resolve(first);
+                    if (namespaceURI == null) {
+                        return null;
+                    }
+                    if (allowsWildcards && eat('*')) {
+                        localName = null;
+                    } else {
+                        localName = parseNCName();
+                        if (localName == null) {
+                            return null;
+                        }
+                    }
+                } else {
+                    localName = first;
+                }
+            }
+            skipSpaces();
+            if ((position_ < expression_.length())
+             && ((expression_.charAt(position_) == '(')
+              || (expression_.charAt(position_) == ':'))) {
+                // A node type test, a function call or an axis
+                return null;
+            }
+            return new String[] { namespaceURI, localName };
+        }
+
+        private String resolve(String prefix) {
+            String namespaceURI = (namespaceContext_ != null) ?
+                namespaceContext_.getNamespaceURI(prefix) : null;
+            return ((namespaceURI == null) || namespaceURI.equals(XMLConstants.NULL_NS_URI)) ?
+                null : namespaceURI;
+        }
+
+        private String parseNCName() {
+            int start = position_;
+            while (position_ < expression_.length()) {
+                char c = expression_.charAt(position_);
+                if (Character.isLetter(c) || (c == '_')
+                 || ((position_ > start)
+                  && (Character.isDigit(c) || (c == '-') || (c == '.')))) {
+                    ++position_;
+                } else {
+                    break;
+                }
+            }
+            return (position_ > start) ? expression_.substring(start, position_) : null;
+        }
+
+        private String parseLiteral() {
+            if (position_ == expression_.length()) {
+                return null;
+            }
+            char quote = expression_.charAt(position_);
+            if ((quote != '"') && (quote != '\'')) {
+                return null;
+            }
+            int end = expression_.indexOf(quote, position_ + 1);
+            if (end < 0) {
+                return null;
+            }
+            String literal = expression_.substring(position_ + 1, end);
+            position_ = end + 1;
+            return literal;
+        }
+
+        private boolean eat(char c) {
+            if ((position_ < expression_.length()) && (expression_.charAt(position_) == c)) {
+                ++position_;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        private void skipSpaces() {
+            while ((position_ < expression_.length())
+                && (" \t\r\n".indexOf(expression_.charAt(position_)) >= 0)) {
+                ++position_;
+            }
+        }
+    }
+}
@@ -38,7 +38,6 @@ import javax.xml.transform.sax.SAXSource;
 import javax.xml.transform.sax.SAXTransformerFactory;
 import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamSource;
-import javax.xml.xpath.XPathExpression;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.types.Resource;
@@ -78,6 +77,14 @@ public final class Transform extends Filter {
 
     private Map<String, Object> paramMap_ = null;
 
+    /**
+     * The plan of this filter, which is laid out by {@link #doInit(File, NamespaceContext,
+     * boolean)}. If its form is SAX, this filter receives documents as SAX events and passes
+     * the transformation results to the sink on the fly; otherwise this filter receives
+     * documents as DOM trees.
+     */
+    private Plan plan_;
+
     /** Sole constructor. */
     Transform() {
     }
@@ -199,6 +206,21 @@ public final class Transform extends Filter {
         }
 
         sink().init(baseDir, namespaceContext, xmlHelper(), logger(), isForce(), dryRun);
+
+        // If the sink refers the source contents, the source shall be materialized into a DOM
+        // tree to be examined prior to the transformation. If the stylesheet is not known
+        // up-front, the source is recorded into a compact buffer to look for the association.
+        boolean materializes = !sink().referents().isEmpty();
+        String description = (stylesheetLocation_ != null) ?
+            "Transform (style=" + stylesheetLocation_.uri() + ")" :
+            "Transform (associated stylesheet)";
+        plan_ = new Plan(description, (materializes ? Plan.Form.DOM : Plan.Form.SAX),
+            Collections.singletonList(sink().plan()));
+    }
+
+    @Override
+    Plan plan() {
+        return plan_;
     }
 
     private Map<String, Object> createParamMap(NamespaceContext namespaceContext) {
@@ -232,14 +254,15 @@ public final class Transform extends Filter {
     @Override
     Result startOne(int origSrcIndex, String origSrcFileName,
             LongFunction<Resource> finder, List<String> notUsed) {
-        List<XPathExpression> referents = sink().referents();
         if (stylesheetLocation_ != null) {
             // if stylesheet is decided, use max of origSrcLastModTime and stylesheet's last mod
             finder = stylesheetLocation_.mixFinder(finder);
         }   // otherwise use origSrcLastModTime only
 
-        if (!referents.isEmpty() || (stylesheetLocation_ == null)) {
+        if (plan_.form() == Plan.Form.DOM) {
             return new FinisherDOMResult(origSrcIndex, origSrcFileName, finder);
+        } else if (stylesheetLocation_ == null) {
+            return new FinisherBufferResult(origSrcIndex, origSrcFileName, finder);
         } else {
             Result openedResult =
                 sink().startOne(origSrcIndex, origSrcFileName,
@@ -294,7 +317,8 @@ public final class Transform extends Filter {
         }
     }
 
-    private class FinisherDOMResult extends DOMResult implements Finisher {
+    private class FinisherDOMResult extends DOMResult
+            implements Finisher, ReadOnlyDOMResult {
         private int origSrcIndex_;
         private String origSrcFileName_;
         private LongFunction<Resource> finder_;
@@ -318,44 +342,39 @@ public final class Transform extends Filter {
                 referredContents = Collections.emptyList();
             }
 
-            // Try to open the sink's result and transfer the DOM node to it if opened
-            Result openedResult = null;
-            try {
-                if (stylesheetLocation_ != null) {
-                    // With a stylesheet fixed up-front
-                    openedResult = sink().startOne(origSrcIndex_, origSrcFileName_,
-                        finder_, referredContents);
-                    if (openedResult != null) {
-                        DOMSource source = new DOMSource(getNode(), getSystemId());
-                        newTransformer().transform(source, openedResult);
-                    } else {
-                        return;
-                    }
-                } else {
-                    // With a stylesheet associated with the source
-                    DOMSource source = new DOMSource(getNode(), getSystemId());
-                    Map.Entry<LongFunction<Resource>, Supplier<Transformer>> assoc =
-                        extractAssociation(source, finder_);
-                    openedResult = sink().startOne(origSrcIndex_, origSrcFileName_,
-                        assoc.getKey(), referredContents);
-                    if (openedResult == null) {
-                        return;
-                    }
-                    assoc.getValue().get().transform(source, openedResult);
-                }
-            } catch (TransformerException e) {
-                if (openedResult != null) {
-                    sink().abortOne(openedResult);
-                }
-                if (stylesheetLocation_ != null) {
-                    throw new BuildException(e, getLocation());
-                } else {
-                    throw new NonfatalBuildException(e, getLocation());
-                }
-            }
+            transformMaterialized(origSrcIndex_, origSrcFileName_, finder_, referredContents,
+                () -> new DOMSource(getNode(), getSystemId()));
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+
+    /**
+     * A TrAX {@code Result} which records a source into an {@link EventBuffer},
+     * from which the source is transformed by the stylesheet associated with it.
+     */
+    private class FinisherBufferResult extends SAXResult implements Finisher {
+        private int origSrcIndex_;
+        private String origSrcFileName_;
+        private LongFunction<Resource> finder_;
+        private EventBuffer buffer_;
+
+        public FinisherBufferResult(int origSrcIndex, String origSrcFileName,
+                LongFunction<Resource> finder) {
+            origSrcIndex_ = origSrcIndex;
+            origSrcFileName_ = origSrcFileName;
+            finder_ = finder;
+            buffer_ = new EventBuffer();
+            setHandler(buffer_);
+            setLexicalHandler(buffer_);
+        }
 
-            // Close the sink's opened result.
-            sink().finishOne(openedResult);
+        @Override
+        public void finish() {
+            transformMaterialized(origSrcIndex_, origSrcFileName_, finder_,
+                Collections.emptyList(), () -> buffer_.newSource(getSystemId()));
         }
 
         @Override
@@ -363,6 +382,62 @@ public final class Transform extends Filter {
         }
     }
 
+    /**
+     * Transforms a source which has been received wholly, and sends the result to the sink.
+     *
+     * @param origSrcIndex
+     *      the index of the original source.
+     * @param origSrcFileName
+     *      the file name of the original source.
+     * @param finder
+     *      the finder of the original source.
+     * @param referredContents
+     *      the source contents referred by the sink, which shall not be {@code null}.
+     * @param source
+     *      a function which supplies a new TrAX {@code Source} of the source on each call,
+     *      which shall not be {@code null}.
+     */
+    private void transformMaterialized(int origSrcIndex, String origSrcFileName,
+            LongFunction<Resource> finder, List<String> referredContents,
+            Supplier<Source> source) {
+        // Try to open the sink's result and transfer the source to it if opened
+        Result openedResult = null;
+        try {
+            if (stylesheetLocation_ != null) {
+                // With a stylesheet fixed up-front
+                openedResult = sink().startOne(origSrcIndex, origSrcFileName,
+                    finder, referredContents);
+                if (openedResult != null) {
+                    newTransformer().transform(source.get(), openedResult);
+                } else {
+                    return;
+                }
+            } else {
+                // With a stylesheet associated with the source
+                Map.Entry<LongFunction<Resource>, Supplier<Transformer>> assoc =
+                    extractAssociation(source.get(), finder);
+                openedResult = sink().startOne(origSrcIndex, origSrcFileName,
+                    assoc.getKey(), referredContents);
+                if (openedResult == null) {
+                    return;
+                }
+                assoc.getValue().get().transform(source.get(), openedResult);
+            }
+        } catch (TransformerException e) {
+            if (openedResult != null) {
+                sink().abortOne(openedResult);
+            }
+            if (stylesheetLocation_ != null) {
+                throw new BuildException(e, getLocation());
+            } else {
+                throw new NonfatalBuildException(e, getLocation());
+            }
+        }
+
+        // Close the sink's opened result.
+        sink().finishOne(openedResult);
+    }
+
     /** A bundle of a stylesheet URI and its "newness". */
     private static class StylesheetLocation {
         private URI uri_;
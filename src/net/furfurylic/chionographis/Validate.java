@@ -0,0 +1,271 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.LongFunction;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.transform.Result;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+import javax.xml.xpath.XPathExpression;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.types.Resource;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import net.furfurylic.chionographis.Logger.Level;
+
+/**
+ * A <i>Validate</i> filter validates each source document against a schema
+ * and passes it to its sinks as it is.
+ *
+ * <p>The validation is performed on the stream of the SAX events on their way to the sinks,
+ * so it requires neither extra parsing nor extra memory. A document found to be invalid
+ * fails to be processed, which prevents its sinks from finishing it.</p>
+ */
+public final class Validate extends Filter {
+
+    /** The schema languages. */
+    public enum Language {
+        /** W3C XML Schema. */
+        XSD(XMLConstants.W3C_XML_SCHEMA_NS_URI),
+        /** RELAX NG, which requires an implementation of the schema factory for it. */
+        RELAXNG(XMLConstants.RELAXNG_NS_URI);
+
+        private final String uri_;
+
+        private Language(String uri) {
+            uri_ = uri;
+        }
+    }
+
+    private String schema_ = null;
+    private Language language_ = null;
+
+    private URI schemaURI_;
+    private Schema compiled_;
+
+    /** Sole constructor. */
+    Validate() {
+    }
+
+    /**
+     * Sets the URI or the file path of the schema.
+     * If the given string represents relative, it is resolved by
+     * {@linkplain Chionographis#setBaseDir(String) the base directory of the task}
+     * to a file path.
+     *
+     * <p>This is a mandatory attribute.</p>
+     *
+     * @param schema
+     *      the URI or the file path of the schema.
+     */
+    public void setSchema(String schema) {
+        schema_ = schema;
+    }
+
+    /**
+     * Sets the language of the schema.
+     * Only {@link Language} objects' string expression can be accepted.
+     * If omitted, {@link Language#RELAXNG} is assumed for the schemas whose names end with
+     * {@code .rng}, and {@link Language#XSD} for the others.
+     *
+     * @param language
+     *      a {@link Language} object's string expression.
+     */
+    public void setLanguage(String language) {
+        try {
+            language_ = Language.valueOf(language.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BuildException("Bad schema language: " + language, getLocation());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    void doInit(File baseDir, NamespaceContext namespaceContext, boolean dryRun) {
+        if (schema_ == null) {
+            throw new BuildException("No schema configured", getLocation());
+        }
+        schemaURI_ = URIUtils.getAbsoluteURI(schema_, baseDir);
+        Language language = language_;
+        if (language == null) {
+            language = schemaURI_.getPath().endsWith(".rng") ? Language.RELAXNG : Language.XSD;
+        }
+
+        // The compiled schema is thread safe and so shared by all documents
+        SchemaFactory factory;
+        try {
+            factory = SchemaFactory.newInstance(language.uri_);
+        } catch (IllegalArgumentException e) {
+            throw new BuildException(
+                "No implementation of schema language " + language + " is available",
+                e, getLocation());
+        }
+        logger().log(this, "Compiling schema " + schemaURI_, Level.DEBUG);
+        try {
+            compiled_ = factory.newSchema(new StreamSource(schemaURI_.toString()));
+        } catch (SAXException e) {
+            throw new BuildException(
+                "Failed to compile the schema " + schemaURI_, e, getLocation());
+        }
+
+        sink().init(baseDir, namespaceContext, xmlHelper(), logger(), isForce(), dryRun);
+    }
+
+    @Override
+    Plan plan() {
+        return new Plan("Validate (schema=" + schemaURI_ + ")", Plan.Form.SAX,
+            Collections.singletonList(sink().plan()));
+    }
+
+    @Override
+    List<XPathExpression> referents() {
+        // The documents are passed unchanged, so the sink can refer the source contents
+        return sink().referents();
+    }
+
+    @Override
+    boolean[] preexamineBundle(String[] origSrcFileNames, LongFunction<Resource>[] finders) {
+        return sink().preexamineBundle(origSrcFileNames, finders);
+    }
+
+    @Override
+    void startBundle() {
+        sink().startBundle();
+    }
+
+    @Override
+    Result startOne(int origSrcIndex, String origSrcFileName,
+            LongFunction<Resource> finder, List<String> referredContents) {
+        Result openedResult = sink().startOne(
+            origSrcIndex, origSrcFileName, finder, referredContents);
+        if (openedResult == null) {
+            // Documents which are not processed are not validated either
+            return null;
+        }
+        try {
+            return new ValidatingResult(openedResult, origSrcFileName);
+        } catch (RuntimeException e) {
+            sink().abortOne(openedResult);
+            throw e;
+        }
+    }
+
+    @Override
+    void finishOne(Result result) {
+        assert result instanceof ValidatingResult;
+        ValidatingResult r = (ValidatingResult) result;
+        logger().log(this, "Validated " + r.origSrcFileName(), Level.DEBUG);
+        sink().finishOne(r.openedResult());
+    }
+
+    @Override
+    Sink abortOne(Result result) {
+        assert result instanceof ValidatingResult;
+        return sink().abortOne(((ValidatingResult) result).openedResult());
+    }
+
+    @Override
+    void finishBundle() {
+        sink().finishBundle();
+    }
+
+    /**
+     * A TrAX {@code Result} which validates a document and sends it to a result opened by
+     * the sink.
+     */
+    private final class ValidatingResult extends SAXResult {
+        private final Result openedResult_;
+        private final String origSrcFileName_;
+
+        public ValidatingResult(Result openedResult, String origSrcFileName) {
+            openedResult_ = openedResult;
+            origSrcFileName_ = origSrcFileName;
+
+            ContentHandler handler;
+            LexicalHandler lexicalHandler;
+            if (openedResult instanceof SAXResult) {
+                SAXResult saxResult = (SAXResult) openedResult;
+                handler = saxResult.getHandler();
+                if (saxResult.getLexicalHandler() != null) {
+                    lexicalHandler = saxResult.getLexicalHandler();
+                } else if (handler instanceof LexicalHandler) {
+                    lexicalHandler = (LexicalHandler) handler;
+                } else {
+                    lexicalHandler = null;
+                }
+            } else {
+                TransformerHandler identity =
+                    xmlHelper().transfer().newIdentityHandler(openedResult, getLocation());
+                handler = identity;
+                lexicalHandler = identity;
+            }
+
+            ValidatorHandler validator = compiled_.newValidatorHandler();
+            validator.setErrorHandler(new ErrorHandler() {
+                @Override
+                public void warning(SAXParseException exception) {
+                    logger().log(Validate.this, "Warning in validating " + origSrcFileName
+                        + ": " + exception.getMessage(), Level.WARN);
+                }
+
+                @Override
+                public void error(SAXParseException exception) throws SAXException {
+                    throw exception;
+                }
+
+                @Override
+                public void fatalError(SAXParseException exception) throws SAXException {
+                    throw exception;
+                }
+            });
+            // Whitespaces in element-only contents are reported as ignorable by the validator,
+            // but they are parts of the document for the sinks
+            validator.setContentHandler(new XMLFilterImpl() {
+                {
+                    setContentHandler(handler);
+                }
+
+                @Override
+                public void ignorableWhitespace(char[] ch, int start, int length)
+                        throws SAXException {
+                    characters(ch, start, length);
+                }
+            });
+            setHandler(validator);
+            // Lexical events are not subject to validation
+            setLexicalHandler(lexicalHandler);
+        }
+
+        public Result openedResult() {
+            return openedResult_;
+        }
+
+        public String origSrcFileName() {
+            return origSrcFileName_;
+        }
+    }
+}
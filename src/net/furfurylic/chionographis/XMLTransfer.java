@@ -8,6 +8,15 @@
 package net.furfurylic.chionographis;
 
 import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -27,6 +36,8 @@ import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.sax.SAXResult;
 import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
@@ -56,11 +67,21 @@ final class XMLTransfer {
     private static final ThreadLocal<BiFunction<EntityResolver, Location, XMLReader>>
         GET_READER = ThreadLocal.withInitial(() -> createXMLReaderGetter());
     private static final ThreadLocal<BiFunction<EntityResolver, Location, DocumentBuilder>>
-        GET_BUILDER = ThreadLocal.withInitial(() -> createDocumentBuilderGetter());
+        GET_BUILDER = ThreadLocal.withInitial(() -> createDocumentBuilderGetter(null));
     private static final ThreadLocal<BiFunction<Void, Location, Transformer>>
         GET_IDENTITY = ThreadLocal.withInitial(() -> createIdentityTransformerGetter());
+    private static final ThreadLocal<BiFunction<Result, Location, TransformerHandler>>
+        GET_IDENTITY_HANDLER = ThreadLocal.withInitial(() -> createIdentityHandlerGetter());
+
+    private static final String GRAMMAR_POOL =
+        "http://apache.org/xml/properties/internal/grammar-pool";
+    private static final String ENTITY_MANAGER =
+        "http://apache.org/xml/properties/internal/entity-manager";
 
     private EntityResolver resolver_  = null;
+    private Object grammarPool_ = null;
+    private ThreadLocal<BiFunction<EntityResolver, Location, DocumentBuilder>> getBuilder_ =
+        GET_BUILDER;
 
     /**
      * Creates a new instance which uses the specified resolver.
@@ -72,12 +93,105 @@ final class XMLTransfer {
         resolver_ = resolver;
     }
 
+    /**
+     * Creates a new instance which uses the specified resolver and grammar pool.
+     *
+     * @param resolver
+     *      a SAX entity resolver, which can be {@code null}.
+     * @param grammarPool
+     *      a grammar pool created by {@link #newGrammarPool(Location)}, which is shared by all
+     *      parsers used by the new instance, or {@code null}.
+     */
+    public XMLTransfer(EntityResolver resolver, Object grammarPool) {
+        resolver_ = resolver;
+        grammarPool_ = grammarPool;
+        if (grammarPool != null) {
+            // Document builders cannot be given the pool after they are created,
+            // so each instance with a pool has builders of its own
+            getBuilder_ = ThreadLocal.withInitial(() -> createDocumentBuilderGetter(grammarPool));
+        }
+    }
+
     /**
      * Identical to {@code XMLTransfer(null)}.
      */
     public XMLTransfer() {
     }
 
+    /**
+     * Creates a new thread-safe grammar pool of the Xerces parser in which the grammars of the
+     * external DTD subsets are cached keyed by their public and system identifiers.
+     *
+     * <p>Xerces does not read the external DTD subsets whose grammars are cached, so the general
+     * entities declared in them would be unknown to the subsequent documents. Therefore the
+     * grammars which declare general entities are not cached in the returned pool.</p>
+     *
+     * <p>The grammar of a document with an internal DTD subset contains the declarations in it,
+     * and a cached grammar takes the place of such a grammar ignoring them. Therefore the
+     * grammars of such documents are neither cached into nor retrieved from the returned
+     * pool. Whether a document has one is told by the parser reading it, which is just before
+     * the internal subset when the pool is asked for the grammar.</p>
+     *
+     * <p>The pool is reached through the internal classes of Xerces by reflection, so the parser
+     * must be the one in the JDK 8 or Apache Xerces on the class path.</p>
+     *
+     * @param location
+     *      the location embedded into exceptions thrown, which can be {@code null}.
+     *
+     * @return
+     *      a new grammar pool, which is not {@code null}.
+     *
+     * @throws BuildException
+     *      if the XML parser of the platform is not Xerces which can be reflected.
+     */
+    public static Object newGrammarPool(Location location) {
+        // The internal package of the JDK or that of Apache Xerces, according to the parser
+        Class<?> factory = SAXParserFactory.newInstance().getClass();
+        String suffix = ".jaxp.SAXParserFactoryImpl";
+        if (!factory.getName().endsWith(suffix)) {
+            throw new BuildException("Grammars cannot be cached because the XML parser "
+                + factory.getName() + " is not Xerces", location);
+        }
+        String xerces = factory.getName().substring(0,
+            factory.getName().length() - suffix.length());
+        if (!isReflectable(factory)) {
+            // Reflecting the JDK's internal packages is warned of or forbidden after Java 8
+            throw new BuildException("Grammars cannot be cached with the XML parser "
+                + factory.getName() + " of Java " + System.getProperty("java.version")
+                + "; use Java 8, or put Apache Xerces on the class path", location);
+        }
+        try {
+            Class<?> poolInterface = Class.forName(xerces + ".xni.grammars.XMLGrammarPool");
+            Object pool = Class.forName(xerces + ".util.XMLGrammarPoolImpl")
+                               .getDeclaredConstructor().newInstance();
+            return Proxy.newProxyInstance(XMLTransfer.class.getClassLoader(),
+                new Class<?>[] { poolInterface }, new SharableGrammarPool(pool, xerces));
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            throw new BuildException("Grammars cannot be cached because the grammar pool of "
+                + "the XML parser " + factory.getName() + " is not available", e, location);
+        }
+    }
+
+    /**
+     * Tells whether a class is free to be reflected, which is so before Java 9 and for the
+     * classes on the class path but not for those in named modules.
+     */
+    private static boolean isReflectable(Class<?> c) {
+        Method getModule;
+        try {
+            getModule = Class.class.getMethod("getModule");
+        } catch (NoSuchMethodException e) {
+            // Before Java 9
+            return true;
+        }
+        try {
+            Object module = getModule.invoke(c);
+            return !((Boolean) getModule.getReturnType().getMethod("isNamed").invoke(module));
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return false;
+        }
+    }
+
     /**
      * Sends a document from a source to a result. Note that this method is destructive
      * to the source.
@@ -165,6 +279,20 @@ final class XMLTransfer {
             transferDOM2DOM(source, (DOMResult) result, adopts, location);
         } else if (result instanceof StreamResult) {
             StreamResult streamResult = (StreamResult) result;
+            Node node = source.getNode();
+            if ((node instanceof Document) && (streamResult.getWriter() == null)
+             && (streamResult.getOutputStream() != null)) {
+                // The most common case, which we handle with our own lean serializer
+                Document document = (Document) node;
+                try {
+                    DOMSerializer.get().write(document, DOMSerializer.encodingOf(document),
+                        streamResult.getOutputStream());
+                } catch (IOException e) {
+                    throw new NonfatalBuildException(e, location);
+                }
+                copySystemID(source, result);
+                return;
+            }
             DOMImplementationLS ls = (DOMImplementationLS)
                 getDocumentBuilder(location).getDOMImplementation();
             LSOutput output = ls.createLSOutput();
@@ -193,6 +321,25 @@ final class XMLTransfer {
         }
     }
 
+    /**
+     * Creates a new identity transformer handler, which receives a document as SAX events and
+     * sends it to a result.
+     *
+     * @param result
+     *      a TrAX {@code Result} object, which must not be {@code null}.
+     * @param location
+     *      the location embedded into exceptions thrown, which can be {@code null}.
+     *
+     * @return
+     *      the new handler.
+     *
+     * @throws BuildException
+     *      if a serious configuration problem occurs.
+     */
+    public TransformerHandler newIdentityHandler(Result result, Location location) {
+        return GET_IDENTITY_HANDLER.get().apply(result, location);
+    }
+
     /**
      * Reads an external document and parses it into a DOM document.
      *
@@ -362,11 +509,21 @@ final class XMLTransfer {
     }
 
     private XMLReader getXMLReader(Location location) {
-        return GET_READER.get().apply(resolver_, location);
+        XMLReader reader = GET_READER.get().apply(resolver_, location);
+        if (grammarPool_ != null) {
+            // Readers are shared among instances, and restore their initial state on reset
+            try {
+                reader.setProperty(GRAMMAR_POOL, grammarPool_);
+                SharableGrammarPool.of(grammarPool_).watch(reader.getProperty(ENTITY_MANAGER));
+            } catch (SAXNotRecognizedException | SAXNotSupportedException e) {
+                throw new BuildException(e, location);
+            }
+        }
+        return reader;
     }
 
     private DocumentBuilder getDocumentBuilder(Location location) {
-        return GET_BUILDER.get().apply(resolver_, location);
+        return getBuilder_.get().apply(resolver_, location);
     }
 
     private Transformer getIdentityTransformer(Location location) {
@@ -401,14 +558,28 @@ final class XMLTransfer {
     }
 
     private static BiFunction<EntityResolver, Location, DocumentBuilder>
-            createDocumentBuilderGetter() {
+            createDocumentBuilderGetter(Object grammarPool) {
         BiFunction<EntityResolver, Location, DocumentBuilder> builder = new One<>(
             l -> {
                 try {
                     DocumentBuilderFactory dbfac = DocumentBuilderFactory.newInstance();
                     dbfac.setNamespaceAware(true);
-                    return dbfac.newDocumentBuilder();
-                } catch (ParserConfigurationException e) {
+                    try {
+                        // Xerces' deferred nodes are expanded on first access, which mutates
+                        // the document, so disjoint subtrees could not be read in parallel
+                        dbfac.setFeature(
+                            "http://apache.org/xml/features/dom/defer-node-expansion", false);
+                    } catch (ParserConfigurationException e) {
+                        // Not Xerces; no deferred nodes
+                    }
+                    if (grammarPool == null) {
+                        return dbfac.newDocumentBuilder();
+                    }
+                    dbfac.setAttribute(GRAMMAR_POOL, grammarPool);
+                    DocumentBuilder b = dbfac.newDocumentBuilder();
+                    SharableGrammarPool.of(grammarPool).watch(b, l);
+                    return b;
+                } catch (ParserConfigurationException | IllegalArgumentException e) {
                     throw new BuildException(e, l);
                 }
             },
@@ -440,6 +611,23 @@ final class XMLTransfer {
         return transformer;
     }
 
+    private static BiFunction<Result, Location, TransformerHandler>
+            createIdentityHandlerGetter() {
+        // Handlers are not reusable, but the factory which creates them is
+        BiFunction<Result, Location, TransformerHandler> handler = new One<>(
+            l -> (SAXTransformerFactory) TransformerFactory.newInstance(),
+            (r, f, l) -> {
+                try {
+                    TransformerHandler h = f.newTransformerHandler();
+                    h.setResult(r);
+                    return h;
+                } catch (TransformerConfigurationException e) {
+                    throw new BuildException(e, l);
+                }
+            });
+        return handler;
+    }
+
     private static final class One<S, O, T> implements BiFunction<S, Location, T> {
         private Function<Location, O> factory_;
         private Resetter<S, O, T> resetter_;
@@ -463,4 +651,201 @@ final class XMLTransfer {
             T reset(S s, O one, Location location);
         }
     }
+
+    /**
+     * A proxy of a Xerces grammar pool which refuses to cache the DTD grammars which declare
+     * general entities, and which neither caches nor retrieves the DTD grammars of the documents
+     * with internal DTD subsets.
+     */
+    private static final class SharableGrammarPool implements InvocationHandler {
+
+        /** The grammar type of DTDs, which is that of {@code XMLGrammarDescription}. */
+        private static final String XML_DTD = "http://www.w3.org/TR/REC-xml";
+
+        private final Object pool_;
+        private final Class<?> entityDecl_;
+        private final Method getEntityScanner_;
+        private final Method getExpandedSystemId_;
+        private final Method peekChar_;
+
+        /** The entity managers of the parsers which use this pool on each thread. */
+        private final ThreadLocal<List<Object>> entityManagers_ =
+            ThreadLocal.withInitial(() -> new ArrayList<>(2));
+
+        /**
+         * The system ID of the document whose DTD grammar was asked for last on each thread
+         * and whether it has an internal DTD subset, for the grammar may be cached afterwards.
+         */
+        private final ThreadLocal<Object[]> lastExamined_ =
+            ThreadLocal.withInitial(() -> new Object[2]);
+
+        public SharableGrammarPool(Object pool, String xerces)
+                throws ReflectiveOperationException {
+            pool_ = pool;
+            entityDecl_ = Class.forName(xerces + ".impl.dtd.XMLEntityDecl");
+            getEntityScanner_ = Class.forName(xerces + ".impl.XMLEntityManager")
+                                     .getMethod("getEntityScanner");
+            Class<?> entityScanner = getEntityScanner_.getReturnType();
+            getExpandedSystemId_ = entityScanner.getMethod("getExpandedSystemId");
+            peekChar_ = entityScanner.getMethod("peekChar");
+        }
+
+        public static SharableGrammarPool of(Object proxy) {
+            return (SharableGrammarPool) Proxy.getInvocationHandler(proxy);
+        }
+
+        /**
+         * Makes this pool ask the specified entity manager, which shall be of a parser used on
+         * the current thread, whether a document has an internal DTD subset.
+         */
+        public void watch(Object entityManager) {
+            List<Object> entityManagers = entityManagers_.get();
+            if (entityManagers.stream().noneMatch(m -> m == entityManager)) {
+                entityManagers.add(entityManager);
+            }
+        }
+
+        /**
+         * Identical to {@link #watch(Object)} except that this method takes the entity manager
+         * out of the specified Xerces document builder.
+         */
+        public void watch(DocumentBuilder builder, Location location) {
+            try {
+                // The JAXP wrapper of the Xerces DOM parser exposes it to nobody
+                Field domParser = builder.getClass().getDeclaredField("domParser");
+                domParser.setAccessible(true);
+                Object parser = domParser.get(builder);
+                watch(parser.getClass().getMethod("getProperty", String.class)
+                                       .invoke(parser, ENTITY_MANAGER));
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                throw new BuildException("Grammars cannot be cached because the document "
+                    + "builder " + builder.getClass().getName() + " is not understood",
+                    e, location);
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("retrieveInitialGrammarSet") && XML_DTD.equals(args[0])) {
+                // A document starts; DTD grammars preloaded into a parser would be used for it
+                // regardless of its internal subset, so they shall be retrieved one by one
+                Arrays.fill(lastExamined_.get(), null);
+                return Array.newInstance(method.getReturnType().getComponentType(), 0);
+            } else if (name.equals("retrieveGrammar") && examineInternalSubset(args[0])) {
+                // The document would lose the declarations in its internal subset
+                return null;
+            } else if (name.equals("cacheGrammars") && (args[1] instanceof Object[])) {
+                Object[] grammars = (Object[]) args[1];
+                Object[] cached = Arrays.stream(grammars)
+                                        .filter(g -> !declaresGeneralEntities(g)
+                                                  && !hadInternalSubset(descriptionOf(g)))
+                                        .toArray(n -> (Object[]) Array.newInstance(
+                                            grammars.getClass().getComponentType(), n));
+                args = new Object[] { args[0], cached };
+            }
+            try {
+                return method.invoke(pool_, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private static Object descriptionOf(Object grammar) {
+            try {
+                return grammar.getClass().getMethod("getGrammarDescription").invoke(grammar);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Returns the base system ID of a DTD grammar description, which is that of the document
+         * which refers the DTD, an empty string if not of a DTD, or {@code null} if unknown.
+         */
+        private static String baseSystemIdOf(Object description) {
+            if (description == null) {
+                return null;
+            }
+            try {
+                Class<?> c = description.getClass();
+                if (!XML_DTD.equals(c.getMethod("getGrammarType").invoke(description))) {
+                    return "";
+                }
+                return (String) c.getMethod("getBaseSystemId").invoke(description);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Tells whether a grammar description which is being retrieved is of the DTD of
+         * a document which has an internal DTD subset, or it is unknown whether it is.
+         *
+         * <p>The grammar is retrieved when the parser has read the external ID of the document
+         * type declaration, so the next character of the document tells the answer.</p>
+         */
+        private boolean examineInternalSubset(Object description) {
+            String systemId = baseSystemIdOf(description);
+            if ("".equals(systemId)) {
+                return false;
+            }
+            boolean hasInternalSubset = true;
+            if (systemId != null) {
+                for (Object entityManager : entityManagers_.get()) {
+                    try {
+                        Object scanner = getEntityScanner_.invoke(entityManager);
+                        if (systemId.equals(getExpandedSystemId_.invoke(scanner))) {
+                            hasInternalSubset = ((Integer) peekChar_.invoke(scanner) == '[');
+                            break;
+                        }
+                    } catch (ReflectiveOperationException | RuntimeException e) {
+                        break;
+                    }
+                }
+            }
+            Object[] last = lastExamined_.get();
+            last[0] = systemId;
+            last[1] = hasInternalSubset;
+            return hasInternalSubset;
+        }
+
+        /**
+         * Tells whether a grammar description which is being cached is of the DTD of
+         * a document which had an internal DTD subset, or it is unknown whether it had.
+         */
+        private boolean hadInternalSubset(Object description) {
+            String systemId = baseSystemIdOf(description);
+            if ("".equals(systemId)) {
+                return false;
+            }
+            Object[] last = lastExamined_.get();
+            return (systemId == null) || !systemId.equals(last[0]) || (Boolean) last[1];
+        }
+
+        private boolean declaresGeneralEntities(Object grammar) {
+            try {
+                Method getEntityDecl;
+                try {
+                    getEntityDecl =
+                        grammar.getClass().getMethod("getEntityDecl", int.class, entityDecl_);
+                } catch (NoSuchMethodException e) {
+                    // Not a DTD grammar
+                    return false;
+                }
+                Field name = entityDecl_.getField("name");
+                Object decl = entityDecl_.getDeclaredConstructor().newInstance();
+                for (int i = 0; Boolean.TRUE.equals(getEntityDecl.invoke(grammar, i, decl)); ++i) {
+                    Object n = name.get(decl);
+                    if ((n != null) && !n.toString().startsWith("%")) {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Unknown; not to be cached
+                return true;
+            }
+        }
+    }
 }
@@ -33,7 +33,9 @@ final class XMLUtils {
     /**
      * Extracts string values from XPath expressions.
      *
-     * <p>This method synchronizes on each elemnts of {@code referents}.</p>
+     * <p>This method may be called simultaneously by multiple threads with the same
+     * {@code referents} only if they can be evaluated so, as {@link PerThreadXPathExpression}
+     * objects can.</p>
      *
      * @param node
      *      a node to apply the XPath expressions.
@@ -50,9 +52,7 @@ final class XMLUtils {
 
     private static String extractOne(Node node, XPathExpression expr) {
         try {
-            synchronized (expr) {
-                return (String) expr.evaluate(node, XPathConstants.STRING);
-            }
+            return (String) expr.evaluate(node, XPathConstants.STRING);
         } catch (XPathExpressionException e) {
             return null;
         }
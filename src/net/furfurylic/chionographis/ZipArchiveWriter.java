@@ -0,0 +1,378 @@
+/*
+ * Chionographis
+ *
+ * These codes are licensed under CC0.
+ * https://creativecommons.org/publicdomain/zero/1.0/deed
+ */
+
+package net.furfurylic.chionographis;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Writes a zip archive whose entries are compressed beforehand.
+ *
+ * <p>Entries are {@linkplain #prepare(String, byte[], int) prepared} (that is, compressed)
+ * by arbitrary threads concurrently, and then {@linkplain #write(Entry) written} into the
+ * archive one by one. The archive is written into a temporary file in the same directory as
+ * the destination, which replaces the destination when {@linkplain #finish() finished}.
+ * Zip64 extensions are used only when needed.</p>
+ *
+ * <p>Objects of this class are thread safe.</p>
+ */
+final class ZipArchiveWriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+
+    private static final int VERSION = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    /** The general purpose flag which tells entry names are encoded in UTF-8. */
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private static final long MAX_32 = 0xffffffffL;
+    private static final int MAX_16 = 0xffff;
+
+    private final ReentrantLock lock_ = new ReentrantLock();
+    private final Path archive_;
+    private final Path temporary_;
+    private final int dosTime_;
+    private final CountingOutputStream out_;
+    private final PooledByteArrayOutputStream centralDirectory_ =
+        new PooledByteArrayOutputStream(BufferPool.BYTES);
+    private final Set<String> names_ = new HashSet<>();
+    private long entryCount_ = 0;
+
+    /**
+     * Sole constructor, which creates the temporary file.
+     *
+     * @param archive
+     *      the absolute path of the destination archive, which shall not be {@code null}.
+     * @param time
+     *      the last modified time of the entries, which shall not be {@code null}.
+     *
+     * @throws IOException
+     *      if an I/O error occurs in creating the temporary file.
+     */
+    public ZipArchiveWriter(Path archive, LocalDateTime time) throws IOException {
+        archive_ = archive;
+        temporary_ = archive.resolveSibling("." + archive.getFileName() + '.'
+            + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+        dosTime_ = toDOSTime(time);
+        out_ = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(
+            temporary_, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW), 65536));
+    }
+
+    private static int toDOSTime(LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            time = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        int date = ((time.getYear() - 1980) << 9) | (time.getMonthValue() << 5)
+                 | time.getDayOfMonth();
+        int t = (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() / 2);
+        return (date << 16) | t;
+    }
+
+    /**
+     * Compresses a content into an entry to be written.
+     * This method can be invoked simultaneously by multiple threads.
+     *
+     * @param name
+     *      the name of the entry, which shall not be {@code null}.
+     * @param content
+     *      an array which contains the content of the entry.
+     * @param length
+     *      the length of the content from the head of {@code content}.
+     *
+     * @return
+     *      an entry, which is not {@code null}.
+     */
+    public static Entry prepare(String name, byte[] content, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, length);
+        PooledByteArrayOutputStream data = new PooledByteArrayOutputStream(BufferPool.BYTES);
+        try {
+            ParallelDeflater.deflate(content, length, data);
+        } catch (IOException e) {
+            // Writing into memory shall not fail.
+            throw new IllegalStateException(e);
+        }
+        int method = DEFLATED;
+        if (data.size() >= length) {
+            // Incompressible
+            data.recycle();
+            data = new PooledByteArrayOutputStream(BufferPool.BYTES);
+            data.write(content, 0, length);
+            method = STORED;
+        }
+        return new Entry(name, method, (int) crc.getValue(), length, data);
+    }
+
+    /**
+     * Writes an entry into the archive. The entry shall not be used after this call.
+     *
+     * @param entry
+     *      an entry prepared by {@link #prepare(String, byte[], int)}.
+     *
+     * @return
+     *      {@code true} if the entry has been written; {@code false} if it has been discarded
+     *      because an entry with the same name has been already written.
+     *
+     * @throws IOException
+     *      if an I/O error occurs.
+     */
+    public boolean write(Entry entry) throws IOException {
+        byte[] name = entry.name_.getBytes(StandardCharsets.UTF_8);
+        long compressedSize = entry.data_.size();
+        long size = entry.size_;
+        lock_.lock();
+        try {
+            if (!names_.add(entry.name_)) {
+                return false;
+            }
+            long offset = out_.count();
+            boolean zip64 = (compressedSize >= MAX_32) || (size >= MAX_32);
+
+            // Local file header
+            writeInt(out_, LOCAL_HEADER_SIGNATURE);
+            writeShort(out_, zip64 ? VERSION_ZIP64 : VERSION);
+            writeShort(out_, FLAG_UTF8);
+            writeShort(out_, entry.method_);
+            writeInt(out_, dosTime_);
+            writeInt(out_, entry.crc_);
+            writeInt(out_, zip64 ? MAX_32 : compressedSize);
+            writeInt(out_, zip64 ? MAX_32 : size);
+            writeShort(out_, name.length);
+            writeShort(out_, zip64 ? 20 : 0);
+            out_.write(name);
+            if (zip64) {
+                writeShort(out_, 0x0001);
+                writeShort(out_, 16);
+                writeLong(out_, size);
+                writeLong(out_, compressedSize);
+            }
+            out_.write(entry.data_.buffer(), 0, entry.data_.size());
+
+            // Central directory file header, which is written at last
+            boolean offset64 = (offset >= MAX_32);
+            int extraLength = (zip64 ? 16 : 0) + (offset64 ? 8 : 0);
+            OutputStream c = centralDirectory_;
+            writeInt(c, CENTRAL_HEADER_SIGNATURE);
+            writeShort(c, (zip64 || offset64) ? VERSION_ZIP64 : VERSION);
+            writeShort(c, (zip64 || offset64) ? VERSION_ZIP64 : VERSION);
+            writeShort(c, FLAG_UTF8);
+            writeShort(c, entry.method_);
+            writeInt(c, dosTime_);
+            writeInt(c, entry.crc_);
+            writeInt(c, zip64 ? MAX_32 : compressedSize);
+            writeInt(c, zip64 ? MAX_32 : size);
+            writeShort(c, name.length);
+            writeShort(c, (extraLength > 0) ? (extraLength + 4) : 0);
+            writeShort(c, 0);   // comment length
+            writeShort(c, 0);   // disk number start
+            writeShort(c, 0);   // internal file attributes
+            writeInt(c, 0);     // external file attributes
+            writeInt(c, offset64 ? MAX_32 : offset);
+            c.write(name);
+            if (extraLength > 0) {
+                writeShort(c, 0x0001);
+                writeShort(c, extraLength);
+                if (zip64) {
+                    writeLong(c, size);
+                    writeLong(c, compressedSize);
+                }
+                if (offset64) {
+                    writeLong(c, offset);
+                }
+            }
+            ++entryCount_;
+            return true;
+        } finally {
+            lock_.unlock();
+            entry.data_.recycle();
+        }
+    }
+
+    /**
+     * Returns the number of the entries written.
+     *
+     * @return
+     *      the number of the entries written.
+     */
+    public long entryCount() {
+        lock_.lock();
+        try {
+            return entryCount_;
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    /**
+     * Finishes the archive and replaces the destination with it.
+     *
+     * @throws IOException
+     *      if an I/O error occurs.
+     */
+    public void finish() throws IOException {
+        lock_.lock();
+        try {
+            long centralOffset = out_.count();
+            long centralSize = centralDirectory_.size();
+            out_.write(centralDirectory_.buffer(), 0, centralDirectory_.size());
+            centralDirectory_.recycle();
+
+            boolean zip64 = (entryCount_ >= MAX_16)
+                || (centralOffset >= MAX_32) || (centralSize >= MAX_32);
+            if (zip64) {
+                long zip64EndOffset = out_.count();
+                writeInt(out_, ZIP64_END_SIGNATURE);
+                writeLong(out_, 44);    // the size of the remaining record
+                writeShort(out_, VERSION_ZIP64);
+                writeShort(out_, VERSION_ZIP64);
+                writeInt(out_, 0);      // number of this disk
+                writeInt(out_, 0);      // disk where central directory starts
+                writeLong(out_, entryCount_);
+                writeLong(out_, entryCount_);
+                writeLong(out_, centralSize);
+                writeLong(out_, centralOffset);
+
+                writeInt(out_, ZIP64_LOCATOR_SIGNATURE);
+                writeInt(out_, 0);      // disk where zip64 end of central directory starts
+                writeLong(out_, zip64EndOffset);
+                writeInt(out_, 1);      // total number of disks
+            }
+
+            writeInt(out_, END_SIGNATURE);
+            writeShort(out_, 0);        // number of this disk
+            writeShort(out_, 0);        // disk where central directory starts
+            writeShort(out_, (int) Math.min(entryCount_, MAX_16));
+            writeShort(out_, (int) Math.min(entryCount_, MAX_16));
+            writeInt(out_, Math.min(centralSize, MAX_32));
+            writeInt(out_, Math.min(centralOffset, MAX_32));
+            writeShort(out_, 0);        // comment length
+            out_.close();
+
+            try {
+                Files.move(temporary_, archive_,
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary_, archive_, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            lock_.unlock();
+            abort();
+        }
+    }
+
+    /**
+     * Discards the archive, leaving the destination untouched.
+     * This method has no effect after the archive has been finished.
+     */
+    public void abort() {
+        lock_.lock();
+        try {
+            centralDirectory_.recycle();
+            try {
+                out_.close();
+            } catch (IOException e) {
+                // Ignored because the temporary file is to be deleted anyway
+            }
+            Files.deleteIfExists(temporary_);
+        } catch (IOException e) {
+            // Ignored because the temporary file is only garbage
+        } finally {
+            lock_.unlock();
+        }
+    }
+
+    private static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+    }
+
+    private static void writeInt(OutputStream out, long value) throws IOException {
+        writeShort(out, (int) value);
+        writeShort(out, (int) (value >>> 16));
+    }
+
+    private static void writeLong(OutputStream out, long value) throws IOException {
+        writeInt(out, value);
+        writeInt(out, value >>> 32);
+    }
+
+    /** An archive entry which has been compressed but not written yet. */
+    static final class Entry {
+        private final String name_;
+        private final int method_;
+        private final int crc_;
+        private final long size_;
+        private final PooledByteArrayOutputStream data_;
+
+        private Entry(String name, int method, int crc, long size,
+                PooledByteArrayOutputStream data) {
+            name_ = name;
+            method_ = method;
+            crc_ = crc;
+            size_ = size;
+            data_ = data;
+        }
+    }
+
+    /** An output stream which counts the written bytes. */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out_;
+        private long count_ = 0;
+
+        CountingOutputStream(OutputStream out) {
+            out_ = out;
+        }
+
+        long count() {
+            return count_;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out_.write(b);
+            ++count_;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out_.write(b, off, len);
+            count_ += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out_.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out_.close();
+        }
+    }
+}